@@ -1,50 +1,99 @@
 package apps;
 
-import java.io.File;
+import java.io.BufferedReader;
+import java.io.FileReader;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.Scanner;
 import java.util.StringTokenizer;
 
+import structures.CompactTree;
+import structures.HTMLTree;
+import structures.TransformPlan;
 import structures.Tree;
 
 public class DOM {
 
 	static Scanner stdin = new Scanner(System.in);
-	static String options = "hprbdaq";
+	static String options = "hwprbdatq";
 	
 	static char getOption() {
 		System.out.print("\nChoose action: ");
 		System.out.print("(p)rint Tree, ");
 		System.out.print("(h)tml, ");
+		System.out.print("(w)rite html to file, ");
 		System.out.print("(r)eplace tag, ");
 		System.out.print("(b)oldface row, ");
 		System.out.print("(d)elete tag, ");
-		System.out.print("(a)dd tag, or ");
+		System.out.print("(a)dd tag, ");
+		System.out.print("(t)ransform with several edits, or ");
 		System.out.print("(q)uit? => ");
 		char response = stdin.nextLine().toLowerCase().charAt(0);
 		while (!options.contains(response+"")) {
-			System.out.print("\tYou must enter one of p, h, r, b, d, a, or q => ");
+			System.out.print("\tYou must enter one of p, h, w, r, b, d, a, t, or q => ");
 			response = stdin.nextLine().toLowerCase().charAt(0);
 		}
 		return response;
 	}
 	
 	/**
-	 * @param args
+	 * Reads edits, one per line, until a blank line: r old new, b row, d tag, or a text tag.
+	 */
+	static TransformPlan readPlan() {
+		TransformPlan plan = new TransformPlan();
+		System.out.println("\tEnter edits, one per line, ending with a blank line:");
+		System.out.println("\tr old-tag new-tag, b row, d tag, or a text tag");
+		while (true) {
+			System.out.print("\t=> ");
+			StringTokenizer st = new StringTokenizer(stdin.nextLine());
+			if (!st.hasMoreTokens()) {
+				return plan;
+			}
+			String edit = st.nextToken();
+			try {
+				if (edit.equals("r")) {
+					plan.replaceTag(st.nextToken(), st.nextToken());
+				} else if (edit.equals("b")) {
+					plan.boldRow(Integer.parseInt(st.nextToken()));
+				} else if (edit.equals("d")) {
+					plan.removeTag(st.nextToken());
+				} else if (edit.equals("a")) {
+					plan.addTag(st.nextToken(), st.nextToken());
+				} else {
+					System.out.println("\tUnknown edit " + edit);
+				}
+			} catch (RuntimeException e) {
+				System.out.println("\tBad edit, ignored");
+			}
+		}
+	}
+	
+	/**
+	 * @param args -compact to keep the tree in a CompactTree, which takes far less memory
+	 * for large files
 	 */
 	public static void main(String[] args) 
 	throws IOException {
 		// TODO Auto-generated method stub
 		System.out.print("Enter HTML file name => ");
 		String htmlFile = stdin.nextLine();
-		Tree tree = new Tree(new Scanner(new File(htmlFile)));
+		BufferedReader in = new BufferedReader(new FileReader(htmlFile));
+		HTMLTree tree = args.length > 0 && args[0].equals("-compact") ? new CompactTree(in) : new Tree(in);
 		tree.build();
 		
 		char option;
 		while ((option = getOption()) != 'q') {
 			System.out.println();
 			if (option == 'h') {
-				System.out.print(tree.getHTML());
+				tree.writeHTML(System.out);
+			} else if (option == 'w') {
+				System.out.print("\tEnter output file name => ");
+				try (FileChannel out = FileChannel.open(Paths.get(stdin.nextLine().trim()), StandardOpenOption.CREATE,
+						StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+					tree.writeHTML(out);
+				}
 			} else if (option == 'p') {
 					tree.print();
 			} else if (option == 'r') {
@@ -82,6 +131,11 @@ public class DOM {
 				System.out.print("\tEnter tag => ");
 				String tag = stdin.nextLine().trim();
 				tree.addTag(text, tag);
+			} else if (option == 't') {
+				TransformPlan plan = readPlan();
+				for (TransformPlan.Pass pass : plan.apply(tree)) {
+					System.out.println("\t" + pass);
+				}
 			}
 		}
 	}
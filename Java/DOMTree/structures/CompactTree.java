@@ -0,0 +1,610 @@
+package structures;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * This class implements an HTML DOM Tree with the same operations as Tree, but without a
+ * TagNode object per node. Nodes are numbered in the order they are made, and are kept in
+ * parallel arrays: for node n, tag[n] is the number of its tag name (or TEXT for a text node,
+ * whose text is text[n]), and firstChild[n], sibling[n], parent[n] and prevSibling[n] are
+ * the numbers of the nodes it links to (or NIL). Tag names are interned, so each distinct
+ * name is kept once, and tags are compared as ints.
+ *
+ * A large document takes a handful of arrays instead of millions of small objects, which
+ * is far less heap and far less work for the garbage collector. Edits that look for a tag
+ * scan the tag array from start to end, which is sequential and cache friendly. Removed
+ * nodes are not reused; their tag is set to FREE.
+ *
+ */
+public class CompactTree implements HTMLTree {
+
+	/**
+	 * No node
+	 */
+	static final int NIL = -1;
+
+	/**
+	 * Tag of a text node
+	 */
+	static final int TEXT = -1;
+
+	/**
+	 * Tag of a removed node
+	 */
+	static final int FREE = -2;
+
+	/**
+	 * Root node
+	 */
+	int root = NIL;
+
+	/**
+	 * Number of nodes made
+	 */
+	int size;
+
+	/**
+	 * Node arrays, indexed by node number
+	 */
+	int[] tag, firstChild, sibling, parent, prevSibling;
+	String[] text;
+
+	/**
+	 * Interned tag names, by number, and their numbers
+	 */
+	ArrayList<String> tagNames = new ArrayList<String>();
+	HashMap<String,Integer> tagIds = new HashMap<String,Integer>();
+
+	/**
+	 * Scanner used to read input HTML file when building the tree, if it was given one
+	 */
+	Scanner sc;
+
+	/**
+	 * Reader used to read input HTML file when building the tree, if it was given one
+	 */
+	BufferedReader in;
+
+	/**
+	 * Initializes this tree object with scanner for input HTML file
+	 *
+	 * @param sc Scanner for input HTML file
+	 */
+	public CompactTree(Scanner sc) {
+		this.sc = sc;
+		allocate(16);
+	}
+
+	/**
+	 * Initializes this tree object with a reader for input HTML file
+	 *
+	 * @param in Reader for input HTML file
+	 */
+	public CompactTree(BufferedReader in) {
+		this.in = in;
+		allocate(16);
+	}
+
+	private void allocate(int capacity) {
+		tag = new int[capacity];
+		firstChild = new int[capacity];
+		sibling = new int[capacity];
+		parent = new int[capacity];
+		prevSibling = new int[capacity];
+		text = new String[capacity];
+		size = 0;
+	}
+
+	/**
+	 * Makes a node with no links.
+	 *
+	 * @param tagId Tag number, or TEXT
+	 * @param s Text, for a text node
+	 * @return Node number
+	 */
+	private int newNode(int tagId, String s) {
+		if (size == tag.length) {
+			int capacity = size * 2;
+			tag = Arrays.copyOf(tag, capacity);
+			firstChild = Arrays.copyOf(firstChild, capacity);
+			sibling = Arrays.copyOf(sibling, capacity);
+			parent = Arrays.copyOf(parent, capacity);
+			prevSibling = Arrays.copyOf(prevSibling, capacity);
+			text = Arrays.copyOf(text, capacity);
+		}
+		int node = size++;
+		tag[node] = tagId;
+		text[node] = s;
+		firstChild[node] = NIL;
+		sibling[node] = NIL;
+		parent[node] = NIL;
+		prevSibling[node] = NIL;
+		return node;
+	}
+
+	/**
+	 * Returns the number of a tag name, giving it one if it has none.
+	 */
+	private int intern(String name) {
+		Integer id = tagIds.get(name);
+		if (id == null) {
+			id = tagNames.size();
+			tagNames.add(name);
+			tagIds.put(name, id);
+		}
+		return id;
+	}
+
+	/**
+	 * Returns the tag name or text of a node.
+	 */
+	private String name(int node) {
+		return tag[node] == TEXT ? text[node] : tagNames.get(tag[node]);
+	}
+
+	/**
+	 * Builds the DOM tree from input HTML file, through the scanner or reader passed
+	 * in to the constructor. Each line of the file is a start tag, an end tag, or text.
+	 *
+	 * @throws IOException If the file cannot be read
+	 */
+	public void build()
+	throws IOException {
+		allocate(1024);
+		tagNames.clear();
+		tagIds.clear();
+		String line = nextLine();
+		if (line == null) {
+			root = NIL;
+			return;
+		}
+		root = newNode(intern(extractString(line)), null);
+
+		//elements not yet closed, innermost last, and the last child added to each so far
+		int[] open = new int[64], last = new int[64];
+		int depth = 1;
+		open[0] = root;
+		last[0] = NIL;
+
+		while (depth > 0 && (line = nextLine()) != null) {
+			if (line.startsWith("</")) {
+				depth--;
+				continue;
+			}
+			int node = line.startsWith("<") ? newNode(intern(extractString(line)), null) : newNode(TEXT, line);
+			int tail = last[depth-1];
+			if (tail == NIL) {
+				firstChild[open[depth-1]] = node;
+			} else {
+				sibling[tail] = node;
+			}
+			parent[node] = open[depth-1];
+			prevSibling[node] = tail;
+			last[depth-1] = node;
+			if (tag[node] != TEXT) {
+				if (depth == open.length) {
+					open = Arrays.copyOf(open, depth * 2);
+					last = Arrays.copyOf(last, depth * 2);
+				}
+				open[depth] = node;
+				last[depth] = NIL;
+				depth++;
+			}
+		}
+	}
+
+	private String nextLine()
+	throws IOException {
+		if (in != null) {
+			return in.readLine();
+		}
+		return sc.hasNextLine() ? sc.nextLine() : null;
+	}
+
+	private String extractString(String s) {
+		if(s.startsWith("<")) {
+			return s.substring(1,s.length() - 1);
+		}else {
+			return s;
+		}
+	}
+
+	/**
+	 * Replaces all occurrences of an old tag in the DOM tree with a new tag
+	 *
+	 * @param oldTag Old tag
+	 * @param newTag Replacement tag
+	 */
+	public void replaceTag(String oldTag, String newTag) {
+		Integer oldId = tagIds.get(oldTag);
+		if (oldId == null) {
+			return;
+		}
+		int from = oldId, to = intern(newTag);
+		for (int node = 0; node < size; node++) {
+			if (tag[node] == from) {
+				tag[node] = to;
+			}
+		}
+	}
+
+	/**
+	 * Boldfaces every column of the given row of the table in the DOM tree. The boldface (b)
+	 * tag appears directly under the td tag of every column of this row.
+	 *
+	 * @param row Row to bold, first row is numbered 1 (not 0).
+	 * @throws IllegalArgumentException If there is no table, or it does not have the row
+	 */
+	public void boldRow(int row) {
+		Integer body = tagIds.get("body"), table = tagIds.get("table");
+		if (body == null || table == null) {
+			throw new IllegalArgumentException("no table");
+		}
+		int ptr = root;
+		while (ptr != NIL && tag[ptr] != body) {
+			ptr = firstChild[ptr];
+		}
+		ptr = ptr == NIL ? NIL : firstChild[ptr];
+		while (ptr != NIL && tag[ptr] != table) {
+			ptr = sibling[ptr];
+		}
+		ptr = ptr == NIL ? NIL : firstChild[ptr];
+		for (int count = 1; ptr != NIL && count != row; count++) {
+			ptr = sibling[ptr];
+		}
+		if (ptr == NIL) {
+			throw new IllegalArgumentException("no row " + row);
+		}
+
+		int b = intern("b");
+		for (int td = firstChild[ptr]; td != NIL; td = sibling[td]) {
+			int node = newNode(b, null);
+			firstChild[node] = firstChild[td];
+			for (int child = firstChild[node]; child != NIL; child = sibling[child]) {
+				parent[child] = node;
+			}
+			parent[node] = td;
+			firstChild[td] = node;
+		}
+	}
+
+	/**
+	 * Remove all occurrences of a tag from the DOM tree. If the tag is p, em, or b, all occurrences of the tag
+	 * are removed. If the tag is ol or ul, then All occurrences of such a tag are removed from the tree, and,
+	 * in addition, all the li tags immediately under the removed tag are converted to p tags.
+	 *
+	 * The root is never removed.
+	 *
+	 * @param tag Tag to be removed, can be p, em, b, ol, or ul
+	 */
+	public void removeTag(String tag) {
+		Integer id = tagIds.get(tag);
+		if (id == null) {
+			return;
+		}
+		int remove = id;
+		boolean list = tag.equals("ol") || tag.equals("ul");
+		int li = list ? intern("li") : NIL, p = list ? intern("p") : NIL;
+		for (int node = 0; node < size; node++) {
+			if (this.tag[node] != remove || node == root) {
+				continue;
+			}
+			if (list) {
+				for (int child = firstChild[node]; child != NIL; child = sibling[child]) {
+					if (this.tag[child] == li) {
+						this.tag[child] = p;
+					}
+				}
+			}
+			unwrap(node);
+			this.tag[node] = FREE;
+		}
+	}
+
+	/**
+	 * Applies the replaceTag and removeTag edits of a transform plan pass together, in
+	 * one scan of the tag array.
+	 *
+	 * @param pass The pass
+	 */
+	void applyTags(TransformPlan.Pass pass) {
+		//what becomes of each tag there is now: its new number, or FREE if removed
+		int names = tagNames.size();
+		int[] to = new int[names];
+		boolean[] list = new boolean[names];
+		for (int id = 0; id < names; id++) {
+			String fate = pass.fate(tagNames.get(id), false);
+			to[id] = fate == null ? FREE : intern(fate);
+			list[id] = fate == null && pass.isRemovedList(tagNames.get(id));
+		}
+		int rootTag = root == NIL || tag[root] < 0 ? NIL : intern(pass.fate(name(root), true));
+		int li = intern("li"), p = intern("p");
+
+		for (int node = 0; node < size; node++) {
+			int t = tag[node];
+			if (t < 0 || t >= names) {
+				continue; // text, removed, or converted to p here
+			}
+			if (node == root) {
+				tag[node] = rootTag;
+			} else if (to[t] != FREE) {
+				tag[node] = to[t];
+			} else {
+				if (list[t]) {
+					for (int child = firstChild[node]; child != NIL; child = sibling[child]) {
+						if (tag[child] == li) {
+							tag[child] = p;
+						}
+					}
+				}
+				unwrap(node);
+				tag[node] = FREE;
+			}
+		}
+	}
+
+	/**
+	 * Puts the children of a node in its place in the tree.
+	 */
+	private void unwrap(int node) {
+		int up = parent[node], prev = prevSibling[node], next = sibling[node];
+		int head = next, last = prev;
+		if (firstChild[node] != NIL) {
+			head = firstChild[node];
+			for (int child = head; child != NIL; child = sibling[child]) {
+				parent[child] = up;
+				last = child;
+			}
+			prevSibling[head] = prev;
+			sibling[last] = next;
+		}
+		if (prev == NIL) {
+			firstChild[up] = head;
+		} else {
+			sibling[prev] = head;
+		}
+		if (next != NIL) {
+			prevSibling[next] = last;
+		}
+	}
+
+	/**
+	 * Links a node in as the sibling after another.
+	 *
+	 * @return The node linked in
+	 */
+	private int insertAfter(int prev, int node) {
+		int next = sibling[prev];
+		parent[node] = parent[prev];
+		prevSibling[node] = prev;
+		sibling[node] = next;
+		if (next != NIL) {
+			prevSibling[next] = node;
+		}
+		sibling[prev] = node;
+		return node;
+	}
+
+	/**
+	 * Adds a tag around all occurrences of a word in the DOM tree.
+	 *
+	 * @param word Word around which tag is to be added
+	 * @param tag Tag to be added
+	 */
+	public void addTag(String word, String tag) {
+		addTags(new String[] {word}, new String[] {tag});
+	}
+
+	/**
+	 * Applies a number of addTag edits, in order, visiting each text node once. An addTag
+	 * only splits a text node and tags the pieces, so each text node is given all of the
+	 * edits, one after the other, before going on to the next.
+	 *
+	 * @param words Word of each edit
+	 * @param added Tag of each edit
+	 */
+	void addTags(String[] words, String[] added) {
+		int[] ids = new int[added.length];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = intern(added[i]);
+		}
+		//nodes made here are the pieces of split text, and are tagged as they are made
+		int made = size;
+		for (int node = 0; node < made; node++) {
+			if (tag[node] != TEXT) {
+				continue;
+			}
+			//the pieces of node are all from node up to its sibling now, or under them
+			int next = sibling[node];
+			for (int i = 0; i < words.length; i++) {
+				for (int text : texts(node, next)) {
+					for (int piece = text; piece != NIL; ) {
+						piece = addTag(words[i], ids[i], piece);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the text nodes from a node up to (not including) one of its siblings, and
+	 * under them, in no particular order.
+	 */
+	private int[] texts(int from, int to) {
+		int[] texts = new int[4], stack = new int[4];
+		int count = 0, top = 0;
+		for (int node = from; node != to; node = sibling[node]) {
+			if (top == stack.length) {
+				stack = Arrays.copyOf(stack, top * 2);
+			}
+			stack[top++] = node;
+		}
+		while (top > 0) {
+			int node = stack[--top];
+			if (tag[node] == TEXT) {
+				if (count == texts.length) {
+					texts = Arrays.copyOf(texts, count * 2);
+				}
+				texts[count++] = node;
+				continue;
+			}
+			for (int child = firstChild[node]; child != NIL; child = sibling[child]) {
+				if (top == stack.length) {
+					stack = Arrays.copyOf(stack, top * 2);
+				}
+				stack[top++] = child;
+			}
+		}
+		return Arrays.copyOf(texts, count);
+	}
+
+	/**
+	 * Tags the first occurrence of a word in a text node, splitting the text around it.
+	 *
+	 * @return The text node with the rest of the text after the word, or NIL
+	 */
+	private int addTag(String word, int id, int node) {
+		if (tag[node] != TEXT || !text[node].contains(word)) {
+			return NIL;
+		}
+		String current = text[node];
+		StringTokenizer tokens = new StringTokenizer(current," ");
+		while(tokens.hasMoreTokens()) {
+			String str = tokens.nextToken();
+			if(!getTagged(word, str)) {
+				continue;
+			}
+			int index = current.indexOf(str);
+			String toTag;
+			if(str.length() == word.length() + 1) {
+				toTag = current.substring(index, index + word.length() + 1);
+			}else {
+				toTag = current.substring(index, index + word.length());
+			}
+			int tagged = newNode(TEXT, toTag);
+			if(index == 0) {
+				tag[node] = id;
+				text[node] = null;
+				firstChild[node] = tagged;
+				parent[tagged] = node;
+				if(current.length() != word.length()) {
+					return insertAfter(node, newNode(TEXT, current.substring(word.length())));
+				}
+				return NIL;
+			}
+			text[node] = current.substring(0,index);
+			int element = newNode(id, null);
+			firstChild[element] = tagged;
+			parent[tagged] = element;
+			insertAfter(node, element);
+			if(index + toTag.length() == current.length()) {
+				return NIL;
+			}
+			return insertAfter(element, newNode(TEXT, current.substring(index+word.length())));
+		}
+		return NIL;
+	}
+
+	private boolean getTagged(String word, String s) {
+		String validChars = "!?.;:";
+		s = s.toLowerCase();
+		if(s.length() > word.length()+1) {
+			return false;
+		}else if(s.length() == word.length()+1){
+			char c = s.charAt(s.length() - 1);
+
+			if(s.substring(0,s.length() - 1).equals(word) && validChars.contains(c+"")) {
+				return true;
+			}
+		}else if(s.length() == word.length()){
+			if(s.equals(word)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Gets the HTML represented by this DOM tree. The returned string includes
+	 * new lines, so that when it is printed, it will be identical to the
+	 * input file from which the DOM tree was built.
+	 *
+	 * @return HTML string, including new lines.
+	 */
+	public String getHTML() {
+		StringBuilder sb = new StringBuilder();
+		try {
+			writeHTML(sb);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e); // a StringBuilder does not throw
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Writes the HTML represented by this DOM tree, the same as getHTML returns, without
+	 * building it as a string first.
+	 *
+	 * @param out Where to write; a Writer should be buffered
+	 * @throws IOException If out cannot be written to
+	 */
+	public void writeHTML(Appendable out)
+	throws IOException {
+		int node = root;
+		while (node != NIL) {
+			if (firstChild[node] != NIL) {
+				out.append('<').append(name(node)).append(">\n");
+				node = firstChild[node];
+				continue;
+			}
+			if (tag[node] >= 0) {
+				//an element with no children
+				out.append('<').append(name(node)).append(">\n</").append(name(node)).append(">\n");
+			} else {
+				out.append(name(node)).append('\n');
+			}
+			//close the elements this was the last node of
+			while (node != NIL && sibling[node] == NIL) {
+				node = parent[node];
+				if (node != NIL) {
+					out.append("</").append(name(node)).append(">\n");
+				}
+			}
+			if (node != NIL) {
+				node = sibling[node];
+			}
+		}
+	}
+
+	/**
+	 * Prints the DOM tree.
+	 *
+	 */
+	public void print() {
+		int node = root, level = 1;
+		while (node != NIL) {
+			for (int i=0; i < level-1; i++) {
+				System.out.print("      ");
+			}
+			if (level > 1) {
+				System.out.print("|----");
+			} else {
+				System.out.print("     ");
+			}
+			System.out.println(name(node));
+			if (firstChild[node] != NIL) {
+				node = firstChild[node];
+				level++;
+				continue;
+			}
+			while (node != NIL && sibling[node] == NIL) {
+				node = parent[node];
+				level--;
+			}
+			if (node != NIL) {
+				node = sibling[node];
+			}
+		}
+	}
+}
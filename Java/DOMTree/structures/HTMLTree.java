@@ -0,0 +1,91 @@
+package structures;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This interface is the DOM tree of an HTML file, as built and edited by the DOM app.
+ * Tree keeps its nodes as TagNode objects; CompactTree keeps them in arrays.
+ *
+ * An element with no children, such as <p> directly followed by </p>, is a tag node all
+ * the same: both trees rename and remove it like any other, convert it to p if it is an li
+ * under a removed ol or ul, never take its tag for text in addTag, and write it out as
+ * its start and end tags.
+ *
+ */
+public interface HTMLTree {
+
+	/**
+	 * Builds the DOM tree from input HTML file.
+	 *
+	 * @throws IOException If the file cannot be read
+	 */
+	void build() throws IOException;
+
+	/**
+	 * Replaces all occurrences of an old tag in the DOM tree with a new tag
+	 *
+	 * @param oldTag Old tag
+	 * @param newTag Replacement tag
+	 */
+	void replaceTag(String oldTag, String newTag);
+
+	/**
+	 * Boldfaces every column of the given row of the table in the DOM tree.
+	 *
+	 * @param row Row to bold, first row is numbered 1 (not 0).
+	 */
+	void boldRow(int row);
+
+	/**
+	 * Remove all occurrences of a tag from the DOM tree.
+	 *
+	 * @param tag Tag to be removed, can be p, em, b, ol, or ul
+	 */
+	void removeTag(String tag);
+
+	/**
+	 * Adds a tag around all occurrences of a word in the DOM tree.
+	 *
+	 * @param word Word around which tag is to be added
+	 * @param tag Tag to be added
+	 */
+	void addTag(String word, String tag);
+
+	/**
+	 * Gets the HTML represented by this DOM tree, with one tag or text per line.
+	 *
+	 * @return HTML string, including new lines.
+	 */
+	String getHTML();
+
+	/**
+	 * Writes the HTML represented by this DOM tree, the same as getHTML returns, without
+	 * building it as a string first.
+	 *
+	 * @param out Where to write; a Writer should be buffered
+	 * @throws IOException If out cannot be written to
+	 */
+	void writeHTML(Appendable out) throws IOException;
+
+	/**
+	 * Writes the HTML represented by this DOM tree to a channel, such as a file or a socket,
+	 * encoded in UTF-8 through a 64K byte buffer. The channel is left open.
+	 *
+	 * @param channel Where to write
+	 * @throws IOException If the channel cannot be written to
+	 */
+	default void writeHTML(WritableByteChannel channel) throws IOException {
+		Writer out = Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), 1 << 16);
+		writeHTML(out);
+		out.flush();
+	}
+
+	/**
+	 * Prints the DOM tree.
+	 */
+	void print();
+}
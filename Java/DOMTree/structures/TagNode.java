@@ -24,6 +24,16 @@ public class TagNode {
 	 */
 	TagNode sibling;
 	
+	/**
+	 * Node whose child this node is, null for the root. Kept by Tree.
+	 */
+	TagNode parent;
+	
+	/**
+	 * Node whose sibling this node is, null for a first child. Kept by Tree.
+	 */
+	TagNode prevSibling;
+	
 	/**
 	 * Initializes this tag node with tag/txt, first child, and sibling
 	 * 
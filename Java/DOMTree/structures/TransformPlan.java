@@ -0,0 +1,422 @@
+package structures;
+
+import java.util.*;
+
+/**
+ * This class is an ordered list of edits to a DOM tree (replaceTag, removeTag, addTag and
+ * boldRow), applied together in as few passes over the tree as give the same result as
+ * applying them one at a time, in order.
+ *
+ * A pass has a tag step and then a text step. The tag step applies a run of replaceTag and
+ * removeTag edits at once: the fate of a tag node depends only on its tag, so the edits are
+ * worked out once per tag name, and each tag node is visited once. The text step applies a
+ * run of addTag edits at once: an addTag only splits a text node and tags the pieces, so
+ * every text node is visited once, and all the addTag edits are applied to it and its
+ * pieces in order. A replaceTag or removeTag that comes after an addTag joins the tag step
+ * before it, as long as it does not touch the tag that the addTag adds. A boldRow is applied
+ * in a pass of its own, as later edits may depend on the b tags it adds.
+ *
+ * Call validate to see how a plan will be split into passes, and which edits are fused.
+ *
+ */
+public class TransformPlan {
+
+	/**
+	 * Kinds of edit
+	 */
+	static final int REPLACE = 0, REMOVE = 1, ADD = 2, BOLD = 3;
+
+	/**
+	 * One edit; a and b are its tags or words, in the order the edit method takes them
+	 */
+	static class Edit {
+		final int kind;
+		final String a, b;
+		final int row;
+
+		Edit(int kind, String a, String b, int row) {
+			this.kind = kind;
+			this.a = a;
+			this.b = b;
+			this.row = row;
+		}
+
+		/**
+		 * Tells if this is a removeTag of a list tag, which converts li tags under it to p.
+		 */
+		boolean isListRemove() {
+			return kind == REMOVE && (a.equals("ol") || a.equals("ul"));
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		public String toString() {
+			switch (kind) {
+			case REPLACE: return "replaceTag(" + a + ", " + b + ")";
+			case REMOVE: return "removeTag(" + a + ")";
+			case ADD: return "addTag(" + a + ", " + b + ")";
+			default: return "boldRow(" + row + ")";
+			}
+		}
+	}
+
+	/**
+	 * One pass over the tree, with the edits that are fused in it.
+	 */
+	public static class Pass {
+
+		/**
+		 * Positions in the plan of the edits in this pass, in the order they were added
+		 */
+		final ArrayList<Integer> edits = new ArrayList<Integer>();
+
+		/**
+		 * replaceTag and removeTag edits, in plan order
+		 */
+		final ArrayList<Edit> tagEdits = new ArrayList<Edit>();
+
+		/**
+		 * addTag edits, in plan order
+		 */
+		final ArrayList<Edit> textEdits = new ArrayList<Edit>();
+
+		/**
+		 * boldRow edit, if this pass is one
+		 */
+		Edit row;
+
+		/**
+		 * Why the edit that starts this pass could not join the one before, null for the first
+		 */
+		final String reason;
+
+		Pass(String reason) {
+			this.reason = reason;
+		}
+
+		/**
+		 * Returns the positions in the plan (starting at 0) of the edits applied in this pass.
+		 *
+		 * @return Edit positions, in the order they are applied
+		 */
+		public List<Integer> edits() {
+			return new ArrayList<Integer>(edits);
+		}
+
+		/**
+		 * Tells if more than one edit is applied in this pass.
+		 *
+		 * @return True if edits are fused
+		 */
+		public boolean isFused() {
+			return edits.size() > 1;
+		}
+
+		/**
+		 * Returns why this pass could not be fused with the one before it.
+		 *
+		 * @return Reason, or null for the first pass
+		 */
+		public String reason() {
+			return reason;
+		}
+
+		/**
+		 * Returns why an edit cannot join this pass, or null if it can.
+		 */
+		String conflict(Edit e) {
+			if (row != null || e.kind == BOLD) {
+				return "boldRow is applied in a pass of its own";
+			}
+			if (e.kind == ADD) {
+				return null;
+			}
+			for (Edit add : textEdits) {
+				if (e.a.equals(add.b) || e.isListRemove() && (add.b.equals("li") || add.b.equals("p"))) {
+					return e + " changes tags added by " + add;
+				}
+			}
+			boolean list = e.isListRemove(), remove = e.kind == REMOVE && !list, listTags = mentionsListTags(e);
+			for (Edit t : tagEdits) {
+				list |= t.isListRemove();
+				remove |= t.kind == REMOVE && !t.isListRemove();
+				listTags |= mentionsListTags(t);
+			}
+			if (list && remove) {
+				return e + ": ol or ul removal is not fused with other tag removals";
+			}
+			if (list && listTags) {
+				return e + ": ol or ul removal is not fused with replacing li or p";
+			}
+			return null;
+		}
+
+		private static boolean mentionsListTags(Edit e) {
+			return e.kind == REPLACE && (e.a.equals("li") || e.a.equals("p") || e.b.equals("li") || e.b.equals("p"));
+		}
+
+		void add(int position, Edit e) {
+			edits.add(position);
+			if (e.kind == BOLD) {
+				row = e;
+			} else if (e.kind == ADD) {
+				textEdits.add(e);
+			} else {
+				tagEdits.add(e);
+				//keep tag edits ahead of text edits in the order of application
+				edits.remove(edits.size()-1);
+				edits.add(tagEdits.size()-1, position);
+			}
+		}
+
+		/**
+		 * Returns the tags whose nodes are changed by the tag step.
+		 */
+		Set<String> changedTags() {
+			HashSet<String> changed = new HashSet<String>();
+			for (Edit e : tagEdits) {
+				changed.add(e.a);
+			}
+			return changed;
+		}
+
+		/**
+		 * Returns the tag a node with a tag has after the tag step, or null if it is removed.
+		 *
+		 * @param tag Tag before the tag step
+		 * @param root True for the root, which is never removed
+		 */
+		String fate(String tag, boolean root) {
+			for (Edit e : tagEdits) {
+				if (!tag.equals(e.a)) {
+					continue;
+				}
+				if (e.kind == REPLACE) {
+					tag = e.b;
+				} else if (!root) {
+					return null;
+				}
+			}
+			return tag;
+		}
+
+		/**
+		 * Tells if a node with a tag is removed by an ol/ul removal, so that the li tags
+		 * under it are converted to p.
+		 */
+		boolean isRemovedList(String tag) {
+			for (Edit e : tagEdits) {
+				if (!tag.equals(e.a)) {
+					continue;
+				}
+				if (e.kind == REPLACE) {
+					tag = e.b;
+				} else {
+					return e.isListRemove();
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Returns the words and tags of the text step.
+		 */
+		String[] words() {
+			String[] words = new String[textEdits.size()];
+			for (int i = 0; i < words.length; i++) {
+				words[i] = textEdits.get(i).a;
+			}
+			return words;
+		}
+
+		String[] tags() {
+			String[] tags = new String[textEdits.size()];
+			for (int i = 0; i < tags.length; i++) {
+				tags[i] = textEdits.get(i).b;
+			}
+			return tags;
+		}
+
+		/**
+		 * Applies this pass to a tree.
+		 */
+		void apply(HTMLTree tree) {
+			if (row != null) {
+				tree.boldRow(row.row);
+			}
+			if (!tagEdits.isEmpty()) {
+				if (tree instanceof Tree) {
+					((Tree)tree).applyTags(this);
+				} else if (tree instanceof CompactTree) {
+					((CompactTree)tree).applyTags(this);
+				} else {
+					for (Edit e : tagEdits) {
+						if (e.kind == REPLACE) {
+							tree.replaceTag(e.a, e.b);
+						} else {
+							tree.removeTag(e.a);
+						}
+					}
+				}
+			}
+			if (!textEdits.isEmpty()) {
+				if (tree instanceof Tree) {
+					((Tree)tree).addTags(words(), tags());
+				} else if (tree instanceof CompactTree) {
+					((CompactTree)tree).addTags(words(), tags());
+				} else {
+					for (Edit e : textEdits) {
+						tree.addTag(e.a, e.b);
+					}
+				}
+			}
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			ArrayList<Edit> applied = new ArrayList<Edit>(tagEdits);
+			applied.addAll(textEdits);
+			if (row != null) {
+				applied.add(row);
+			}
+			List<Integer> order = edits();
+			for (int i = 0; i < order.size(); i++) {
+				if (i > 0) {
+					sb.append(", ");
+				}
+				sb.append(order.get(i) + 1).append(' ').append(applied.get(i));
+			}
+			sb.append(isFused() ? " (fused)" : "");
+			if (reason != null) {
+				sb.append(" [new pass: ").append(reason).append(']');
+			}
+			return sb.toString();
+		}
+	}
+
+	/**
+	 * Edits, in the order they were added
+	 */
+	ArrayList<Edit> edits = new ArrayList<Edit>();
+
+	/**
+	 * Adds a replaceTag edit to the plan.
+	 *
+	 * @param oldTag Old tag
+	 * @param newTag Replacement tag
+	 * @return This plan
+	 */
+	public TransformPlan replaceTag(String oldTag, String newTag) {
+		edits.add(new Edit(REPLACE, check(oldTag), check(newTag), 0));
+		return this;
+	}
+
+	/**
+	 * Adds a removeTag edit to the plan.
+	 *
+	 * @param tag Tag to be removed
+	 * @return This plan
+	 */
+	public TransformPlan removeTag(String tag) {
+		edits.add(new Edit(REMOVE, check(tag), null, 0));
+		return this;
+	}
+
+	/**
+	 * Adds an addTag edit to the plan.
+	 *
+	 * @param word Word around which tag is to be added
+	 * @param tag Tag to be added
+	 * @return This plan
+	 */
+	public TransformPlan addTag(String word, String tag) {
+		edits.add(new Edit(ADD, check(word), check(tag), 0));
+		return this;
+	}
+
+	/**
+	 * Adds a boldRow edit to the plan.
+	 *
+	 * @param row Row to bold, first row is numbered 1 (not 0).
+	 * @return This plan
+	 */
+	public TransformPlan boldRow(int row) {
+		if (row < 1) {
+			throw new IllegalArgumentException("row " + row + " is not positive");
+		}
+		edits.add(new Edit(BOLD, null, null, row));
+		return this;
+	}
+
+	private static String check(String s) {
+		if (s == null || s.length() == 0) {
+			throw new IllegalArgumentException("tag or word is empty");
+		}
+		return s;
+	}
+
+	/**
+	 * Returns the number of edits in the plan.
+	 *
+	 * @return Number of edits
+	 */
+	public int size() {
+		return edits.size();
+	}
+
+	/**
+	 * Splits the plan into passes. Each edit goes into the pass before it if it can be
+	 * fused with the edits there, and starts a new pass if not.
+	 *
+	 * @return Passes, in the order they are applied
+	 */
+	public List<Pass> validate() {
+		ArrayList<Pass> passes = new ArrayList<Pass>();
+		Pass pass = null;
+		for (int i = 0; i < edits.size(); i++) {
+			Edit e = edits.get(i);
+			if (pass == null) {
+				pass = new Pass(null);
+				passes.add(pass);
+			} else {
+				String conflict = pass.conflict(e);
+				if (conflict != null) {
+					pass = new Pass(conflict);
+					passes.add(pass);
+				}
+			}
+			pass.add(i, e);
+		}
+		return passes;
+	}
+
+	/**
+	 * Applies all edits to a tree, with the same result as applying them one at a time.
+	 *
+	 * @param tree The tree, already built
+	 * @return The passes made, as returned by validate
+	 */
+	public List<Pass> apply(HTMLTree tree) {
+		List<Pass> passes = validate();
+		for (Pass pass : passes) {
+			pass.apply(tree);
+		}
+		return passes;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		List<Pass> passes = validate();
+		for (int i = 0; i < passes.size(); i++) {
+			sb.append("pass ").append(i + 1).append(": ").append(passes.get(i)).append('\n');
+		}
+		return sb.toString();
+	}
+}
@@ -1,13 +1,19 @@
 package structures;
 
+import java.io.*;
 import java.util.*;
 
 /**
  * This class implements an HTML DOM Tree. Each node of the tree is a TagNode, with fields for
  * tag/text, first child and sibling.
  * 
+ * The tree also keeps an index of its tag nodes by tag name, and every node has links to
+ * its parent and previous sibling, so that replacing or removing a tag only visits the
+ * nodes with that tag instead of the whole tree. Every edit keeps the index and links up
+ * to date.
+ * 
  */
-public class Tree {
+public class Tree implements HTMLTree {
 	
 	/**
 	 * Root node
@@ -15,10 +21,21 @@ public class Tree {
 	TagNode root=null;
 	
 	/**
-	 * Scanner used to read input HTML file when building the tree
+	 * Tag nodes by tag name: every node built from a start tag or added by an edit,
+	 * whether or not it has children
+	 */
+	HashMap<String,Set<TagNode>> tags = new HashMap<String,Set<TagNode>>();
+	
+	/**
+	 * Scanner used to read input HTML file when building the tree, if it was given one
 	 */
 	Scanner sc;
 	
+	/**
+	 * Reader used to read input HTML file when building the tree, if it was given one
+	 */
+	BufferedReader in;
+	
 	/**
 	 * Initializes this tree object with scanner for input HTML file
 	 * 
@@ -30,58 +47,117 @@ public class Tree {
 	}
 	
 	/**
-	 * Builds the DOM tree from input HTML file, through scanner passed
-	 * in to the constructor and stored in the sc field of this object. 
+	 * Initializes this tree object with a reader for input HTML file. This is much
+	 * faster than a scanner for large files.
 	 * 
-	 * The root of the tree that is built is referenced by the root field of this object.
+	 * @param in Reader for input HTML file
 	 */
-	public void build() {
-		String s = sc.nextLine();
-		root = new TagNode(s.substring(1,s.length()-1),null,null);
-		build(sc.nextLine(),s,root);
+	public Tree(BufferedReader in) {
+		this.in = in;
+		root = null;
 	}
 	
-	private void build(String line, String prev, TagNode ptr) {
-		if(line.length() > 1) {
-			if(line.charAt(1) == '/') {
-				return;
-			}
+	/**
+	 * Builds the DOM tree from input HTML file, through the scanner or reader passed
+	 * in to the constructor. Each line of the file is a start tag, an end tag, or text.
+	 * 
+	 * The root of the tree that is built is referenced by the root field of this object.
+	 * The tree is built in a single pass, in time linear in the number of lines, with
+	 * a stack of the elements that are open instead of recursion, so it works for files
+	 * of any size and depth.
+	 * 
+	 * @throws IOException If the file cannot be read
+	 */
+	public void build() 
+	throws IOException {
+		String line = nextLine();
+		if (line == null) {
+			root = null;
+			return;
 		}
+		root = new TagNode(extractString(line),null,null);
+		tags.clear();
+		index(root);
 		
-		//System.out.println(root);
-		String s = extractString(line);
+		//elements not yet closed, innermost on top, and the last child added to each so far
+		Stack<TagNode> open = new Stack<TagNode>();
+		Stack<TagNode> last = new Stack<TagNode>();
+		open.push(root);
+		last.push(null);
 		
-		if(prev.charAt(0) == '<') {
-			if (ptr.firstChild == null) {
-				ptr.firstChild = new TagNode(s, null, null);
-				build(sc.nextLine(), line, ptr.firstChild);
-			}else {
-				while(ptr.sibling != null) {
-					ptr = ptr.sibling;
-				}
-				
-				ptr.sibling = new TagNode(s,null,null);
-				build(sc.nextLine(),line,ptr.sibling);
-				return;
+		while (!open.isEmpty() && (line = nextLine()) != null) {
+			if (line.startsWith("</")) {
+				open.pop();
+				last.pop();
+				continue;
+			}
+			TagNode node = new TagNode(extractString(line),null,null);
+			TagNode tail = last.pop();
+			if (tail == null) {
+				open.peek().firstChild = node;
+			} else {
+				tail.sibling = node;
+			}
+			node.parent = open.peek();
+			node.prevSibling = tail;
+			last.push(node);
+			if (line.startsWith("<")) {
+				index(node);
+				open.push(node);
+				last.push(null);
 			}
-		}else {
-			ptr.sibling = new TagNode(s,null,null);
-			build(sc.nextLine(),line,ptr.sibling);
-			return;
 		}
-		
-		if (sc.hasNextLine()) {
-			build(sc.nextLine(), line, ptr);
+	}
+	
+	private String nextLine() 
+	throws IOException {
+		if (in != null) {
+			return in.readLine();
 		}
+		return sc.hasNextLine() ? sc.nextLine() : null;
 	}
 	
 	private String extractString(String s) {
-		if(s.charAt(0) == '<') {
+		if(s.startsWith("<")) {
 			return s.substring(1,s.length() - 1);
 		}else {
 			return s;
 		}
 	}
+	/**
+	 * Adds a tag node to the index.
+	 */
+	private void index(TagNode node) {
+		Set<TagNode> nodes = tags.get(node.tag);
+		if (nodes == null) {
+			nodes = new LinkedHashSet<TagNode>();
+			tags.put(node.tag, nodes);
+		}
+		nodes.add(node);
+	}
+	
+	/**
+	 * Tells if a node is a tag node, that is, in the index, rather than text. A tag node
+	 * may have no children, as for <p> directly followed by </p>.
+	 */
+	private boolean isTag(TagNode node) {
+		Set<TagNode> nodes = tags.get(node.tag);
+		return nodes != null && nodes.contains(node);
+	}
+	
+	/**
+	 * Gives a tag node a new tag, and moves it in the index.
+	 */
+	private void rename(TagNode node, String tag) {
+		Set<TagNode> nodes = tags.get(node.tag);
+		nodes.remove(node);
+		if (nodes.isEmpty()) {
+			tags.remove(node.tag);
+		}
+		node.tag = tag;
+		index(node);
+	}
+	
 	/**
 	 * Replaces all occurrences of an old tag in the DOM tree with a new tag
 	 * 
@@ -89,18 +165,19 @@ public class Tree {
 	 * @param newTag Replacement tag
 	 */
 	public void replaceTag(String oldTag, String newTag) {
-		replaceTag(oldTag,newTag,root);
-	}
-	
-	private void replaceTag(String oldTag, String newTag, TagNode ptr) {
-		if(ptr == null) {
+		Set<TagNode> nodes = tags.get(oldTag);
+		if (nodes == null || oldTag.equals(newTag)) {
 			return;
-		}else {
-			if(ptr.tag.equals(oldTag)) {
-				ptr.tag = newTag;
-			}
-			replaceTag(oldTag, newTag, ptr.sibling);
-			replaceTag(oldTag, newTag, ptr.firstChild);
+		}
+		tags.remove(oldTag);
+		for (TagNode ptr : nodes) {
+			ptr.tag = newTag;
+		}
+		Set<TagNode> existing = tags.get(newTag);
+		if (existing == null) {
+			tags.put(newTag, nodes);
+		} else {
+			existing.addAll(nodes);
 		}
 	}
 	
@@ -135,7 +212,13 @@ public class Tree {
 		ptr = ptr.firstChild;
 		
 		while(ptr != null) {
-			ptr.firstChild = new TagNode("b",ptr.firstChild,null);
+			TagNode b = new TagNode("b",ptr.firstChild,null);
+			for (TagNode child = b.firstChild; child != null; child = child.sibling) {
+				child.parent = b;
+			}
+			b.parent = ptr;
+			ptr.firstChild = b;
+			index(b);
 			ptr = ptr.sibling;
 		}
 		return;
@@ -146,84 +229,96 @@ public class Tree {
 	 * are removed. If the tag is ol or ul, then All occurrences of such a tag are removed from the tree, and, 
 	 * in addition, all the li tags immediately under the removed tag are converted to p tags. 
 	 * 
+	 * The root is never removed.
+	 * 
 	 * @param tag Tag to be removed, can be p, em, b, ol, or ul
 	 */
 	public void removeTag(String tag) {
-		if(tag.equals("ol") || tag.equals("ul")) {
-			removeTag2(tag,root,null);
-		}else {
-			removeTag1(tag,root,null);
-		}
-	}
-	
-	private void removeTag1(String tag, TagNode ptr, TagNode prev) {
-		if(ptr == null) {
+		Set<TagNode> nodes = tags.remove(tag);
+		if (nodes == null) {
 			return;
-		}else {
-			if(ptr.tag.equals(tag)) {
-				if(prev.firstChild != null && prev.firstChild.tag.equals(ptr.tag)) {
-					TagNode ptr2 = ptr.firstChild;
-					
-					while(ptr2 != null && ptr2.sibling != null) {
-						ptr2 = ptr2.sibling;
-					}
-					ptr2.sibling = ptr.sibling;
-					prev.firstChild = ptr.firstChild;
-					//print();
-					removeTag1(tag,ptr.firstChild,prev);
-					return;
-				}else {
-					TagNode ptr2 = ptr.firstChild;
-					
-					while(ptr2 != null && ptr2.sibling != null) {
-						ptr2 = ptr2.sibling;
+		}
+		boolean list = tag.equals("ol") || tag.equals("ul");
+		for (TagNode ptr : nodes) {
+			if (ptr == root) {
+				index(root);
+				continue;
+			}
+			if (list) {
+				for (TagNode child = ptr.firstChild; child != null; child = child.sibling) {
+					if (child.tag.equals("li") && isTag(child)) {
+						rename(child, "p");
 					}
-					
-					ptr2.sibling = ptr.sibling;
-					prev.sibling = ptr.firstChild;
-					//print();
-					removeTag1(tag,ptr.sibling,prev.sibling);
-					return;
 				}
 			}
-			removeTag1(tag,ptr.firstChild, ptr);
-			removeTag1(tag,ptr.sibling, ptr);
+			unwrap(ptr);
 		}
 	}
 	
-	private void removeTag2(String tag, TagNode ptr, TagNode prev) {
-		if(ptr == null) {
-			return;
-		}else {
-			if(ptr.tag.equals(tag)) {
-				if (prev.firstChild != null && prev.firstChild.tag.equals(ptr.tag)) {
-					prev.firstChild = ptr.firstChild;
-					TagNode ptr2 = ptr.firstChild, ptr3 = ptr.sibling, prev2 = null;
-					while (ptr2 != null) {
-						ptr2.tag = "p";
-						removeTag2(tag, ptr2.firstChild, ptr);
-						prev2 = ptr2;
-						ptr2 = ptr2.sibling;
-					}
-					prev2.sibling = ptr3;
-				}else {
-					prev.sibling = ptr.firstChild;
-					TagNode ptr2 = ptr.firstChild, ptr3 = ptr.sibling, prev2 = null;
-					while (ptr2 != null) {
-						ptr2.tag = "p";
-						removeTag2(tag, ptr2.firstChild, ptr);
-						prev2 = ptr2;
-						ptr2 = ptr2.sibling;
+	/**
+	 * Puts the children of a tag node in its place in the tree.
+	 */
+	private void unwrap(TagNode ptr) {
+		//with no children, the siblings on either side are linked to each other
+		TagNode head = ptr.sibling, last = ptr.prevSibling;
+		if (ptr.firstChild != null) {
+			head = ptr.firstChild;
+			for (TagNode child = head; child != null; child = child.sibling) {
+				child.parent = ptr.parent;
+				last = child;
+			}
+			head.prevSibling = ptr.prevSibling;
+			last.sibling = ptr.sibling;
+		}
+		if (ptr.prevSibling == null) {
+			ptr.parent.firstChild = head;
+		} else {
+			ptr.prevSibling.sibling = head;
+		}
+		if (ptr.sibling != null) {
+			ptr.sibling.prevSibling = last;
+		}
+	}
+	
+	/**
+	 * Applies the replaceTag and removeTag edits of a transform plan pass together,
+	 * visiting each node with a changed tag once.
+	 * 
+	 * @param pass The pass
+	 */
+	void applyTags(TransformPlan.Pass pass) {
+		//take the nodes of every tag that changes out of the index, then put back those that stay
+		HashMap<String,Set<TagNode>> changing = new HashMap<String,Set<TagNode>>();
+		for (String tag : pass.changedTags()) {
+			Set<TagNode> nodes = tags.remove(tag);
+			if (nodes != null) {
+				changing.put(tag, nodes);
+			}
+		}
+		for (Map.Entry<String,Set<TagNode>> entry : changing.entrySet()) {
+			String fate = pass.fate(entry.getKey(), false);
+			boolean list = fate == null && pass.isRemovedList(entry.getKey());
+			for (TagNode ptr : entry.getValue()) {
+				if (ptr == root) {
+					ptr.tag = pass.fate(entry.getKey(), true);
+					index(ptr);
+				} else if (fate != null) {
+					ptr.tag = fate;
+					index(ptr);
+				} else {
+					if (list) {
+						for (TagNode child = ptr.firstChild; child != null; child = child.sibling) {
+							if (child.tag.equals("li") && isTag(child)) {
+								rename(child, "p");
+							}
+						}
 					}
-					prev2.sibling = ptr3;
+					unwrap(ptr);
 				}
-				removeTag2(tag,ptr.sibling,ptr);
-			}else {
-				removeTag2(tag,ptr.firstChild,ptr);
-				removeTag2(tag,ptr.sibling,ptr);
 			}
 		}
 	}
+	
 	/**
 	 * Adds a tag around all occurrences of a word in the DOM tree.
 	 * 
@@ -231,55 +326,116 @@ public class Tree {
 	 * @param tag Tag to be added
 	 */
 	public void addTag(String word, String tag) {
-		addTag(word,tag,root);
+		addTags(new String[] {word}, new String[] {tag});
 	}
 	
-	private void addTag(String word, String tag, TagNode ptr) {
-		if(ptr == null) {
-			return;
-		}else {
-			if(ptr.tag.contains(word)) {
-				StringTokenizer tokens = new StringTokenizer(ptr.tag," ");
-				String currentTag = ptr.tag;
-				while(tokens.hasMoreTokens()) {
-					String str = tokens.nextToken();
-					if(getTagged(word, str)) {
-						int index = ptr.tag.indexOf(str);
-						String toTag;
-						if(str.length() == word.length() + 1) {
-							toTag = ptr.tag.substring(index, index + word.length() + 1);
-						}else {
-							toTag = ptr.tag.substring(index, index + word.length());
-						}
-						TagNode tagged = new TagNode(toTag,null,null);
-						TagNode currentSibling = ptr.sibling;
-						if(index == 0) {
-							ptr.tag = tag;
-							ptr.firstChild = tagged;
-							if(currentTag.length() != word.length()) {
-								ptr.sibling = new TagNode(currentTag.substring(index+word.length()),null,currentSibling);
-							}
-							addTag(word,tag,ptr.sibling);
-							break;
-						}else if(index + toTag.length() == currentTag.length()) {
-							ptr.tag = currentTag.substring(0,index);
-							ptr.sibling = new TagNode(tag,tagged,currentSibling);
-							addTag(word,tag,ptr.sibling.sibling);
-							break;
-						}else {
-							String after = currentTag.substring(index+word.length());
-							ptr.tag = currentTag.substring(0,index);
-							ptr.sibling = new TagNode(tag,tagged,new TagNode(after,null,currentSibling));
-							addTag(word,tag,ptr.sibling.sibling);
-							break;
+	/**
+	 * Applies a number of addTag edits, in order, visiting each text node once. An addTag
+	 * only splits a text node and tags the pieces, so each text node is given all of the
+	 * edits, one after the other, before going on to the next.
+	 * 
+	 * @param words Word of each edit
+	 * @param added Tag of each edit
+	 */
+	void addTags(String[] words, String[] added) {
+		for (TagNode ptr : texts(root, null)) {
+			//the pieces of ptr are all from ptr up to its sibling now, or under them
+			TagNode next = ptr.sibling;
+			for (int i = 0; i < words.length; i++) {
+				for (TagNode text : texts(ptr, next)) {
+					for (TagNode piece = text; piece != null; ) {
+						piece = addTag(words[i], added[i], piece);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Returns the text nodes from a node up to (not including) one of its siblings, and
+	 * under them, in no particular order.
+	 */
+	private ArrayList<TagNode> texts(TagNode from, TagNode to) {
+		ArrayList<TagNode> texts = new ArrayList<TagNode>();
+		Stack<TagNode> stack = new Stack<TagNode>();
+		for (TagNode ptr = from; ptr != to; ptr = ptr.sibling) {
+			stack.push(ptr);
+		}
+		while (!stack.isEmpty()) {
+			TagNode ptr = stack.pop();
+			if (ptr.firstChild == null && !isTag(ptr)) {
+				texts.add(ptr);
+			} else {
+				for (TagNode child = ptr.firstChild; child != null; child = child.sibling) {
+					stack.push(child);
+				}
+			}
+		}
+		return texts;
+	}
+	
+	/**
+	 * Tags the first occurrence of a word in a text node, splitting the text around it.
+	 * 
+	 * @return The text node with the rest of the text after the word, or null
+	 */
+	private TagNode addTag(String word, String tag, TagNode ptr) {
+		if(ptr.tag.contains(word)) {
+			StringTokenizer tokens = new StringTokenizer(ptr.tag," ");
+			String currentTag = ptr.tag;
+			while(tokens.hasMoreTokens()) {
+				String str = tokens.nextToken();
+				if(getTagged(word, str)) {
+					int index = ptr.tag.indexOf(str);
+					String toTag;
+					if(str.length() == word.length() + 1) {
+						toTag = ptr.tag.substring(index, index + word.length() + 1);
+					}else {
+						toTag = ptr.tag.substring(index, index + word.length());
+					}
+					TagNode tagged = new TagNode(toTag,null,null);
+					TagNode currentSibling = ptr.sibling;
+					if(index == 0) {
+						ptr.tag = tag;
+						ptr.firstChild = tagged;
+						if(currentTag.length() != word.length()) {
+							ptr.sibling = new TagNode(currentTag.substring(index+word.length()),null,currentSibling);
 						}
+						tagged.parent = ptr;
+						index(ptr);
+						relink(ptr, currentSibling);
+						return ptr.sibling != currentSibling ? ptr.sibling : null;
+					}else if(index + toTag.length() == currentTag.length()) {
+						ptr.tag = currentTag.substring(0,index);
+						ptr.sibling = new TagNode(tag,tagged,currentSibling);
+						tagged.parent = ptr.sibling;
+						index(ptr.sibling);
+						relink(ptr, currentSibling);
+						return null;
+					}else {
+						String after = currentTag.substring(index+word.length());
+						ptr.tag = currentTag.substring(0,index);
+						ptr.sibling = new TagNode(tag,tagged,new TagNode(after,null,currentSibling));
+						tagged.parent = ptr.sibling;
+						index(ptr.sibling);
+						relink(ptr, currentSibling);
+						return ptr.sibling.sibling;
 					}
 				}
-			}else {
-				addTag(word, tag, ptr.firstChild);
-				addTag(word, tag, ptr.sibling);
 			}
 		}
+		return null;
+	}
+	
+	/**
+	 * Sets the parent and previous sibling links of the nodes added after ptr, up to the
+	 * node that followed it before.
+	 */
+	private void relink(TagNode ptr, TagNode next) {
+		for (TagNode prev = ptr; prev != next && prev.sibling != null; prev = prev.sibling) {
+			prev.sibling.parent = ptr.parent;
+			prev.sibling.prevSibling = prev;
+		}
 	}
 	
 	private boolean getTagged(String word, String s) {
@@ -310,23 +466,46 @@ public class Tree {
 	 */
 	public String getHTML() {
 		StringBuilder sb = new StringBuilder();
-		getHTML(root, sb);
+		try {
+			writeHTML(sb);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e); // a StringBuilder does not throw
+		}
 		return sb.toString();
 	}
 	
-	private void getHTML(TagNode root, StringBuilder sb) {
-		for (TagNode ptr=root; ptr != null;ptr=ptr.sibling) {
-			if (ptr.firstChild == null) {
-				sb.append(ptr.tag);
-				sb.append("\n");
+	/**
+	 * Writes the HTML represented by this DOM tree, the same as getHTML returns, without
+	 * building it as a string first. The tree is walked iteratively, through parent links,
+	 * so any depth can be written.
+	 * 
+	 * @param out Where to write; a Writer should be buffered
+	 * @throws IOException If out cannot be written to
+	 */
+	public void writeHTML(Appendable out) 
+	throws IOException {
+		TagNode ptr = root;
+		while (ptr != null) {
+			if (ptr.firstChild != null) {
+				out.append('<').append(ptr.tag).append(">\n");
+				ptr = ptr.firstChild;
+				continue;
+			}
+			if (isTag(ptr)) {
+				//a tag node with no children
+				out.append('<').append(ptr.tag).append(">\n</").append(ptr.tag).append(">\n");
 			} else {
-				sb.append("<");
-				sb.append(ptr.tag);
-				sb.append(">\n");
-				getHTML(ptr.firstChild, sb);
-				sb.append("</");
-				sb.append(ptr.tag);
-				sb.append(">\n");	
+				out.append(ptr.tag).append('\n');
+			}
+			//close the tags this was the last node of
+			while (ptr != null && ptr.sibling == null) {
+				ptr = ptr.parent;
+				if (ptr != null) {
+					out.append("</").append(ptr.tag).append(">\n");
+				}
+			}
+			if (ptr != null) {
+				ptr = ptr.sibling;
 			}
 		}
 	}
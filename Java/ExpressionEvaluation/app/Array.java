@@ -19,6 +19,12 @@ public class Array {
 	 */
 	public int[] values;
 	
+	/**
+	 * Storage for the values when they are not kept in an int[], such as a
+	 * memory-mapped file or a sparse map; only used when values is null
+	 */
+	public ArrayStorage storage;
+	
 	/**
 	 * Initializes with name, and sets values to null.
 	 * 
@@ -29,20 +35,101 @@ public class Array {
         values = null;
     }
 	
+	/**
+	 * Sets the values from (index, value) pairs, all other items being zero. If the
+	 * array is large and few items are given, they are kept in a SparseArrayStorage,
+	 * otherwise in an int[]. When an index is given more than once, the last value is kept.
+	 * 
+	 * @param length Number of items
+	 * @param indexes Indexes of the given items
+	 * @param items Values of the given items
+	 * @param count Number of pairs in indexes and items
+	 * @throws ArrayIndexOutOfBoundsException If an index is out of bounds
+	 */
+	public void setValues(int length, int[] indexes, int[] items, int count) {
+		if (count <= SparseArrayStorage.maxItems(length)) {
+			SparseArrayStorage sparse = new SparseArrayStorage(length, count);
+			for (int i = 0; i < count; i++) {
+				sparse.set(indexes[i], items[i]);
+			}
+			values = null;
+			storage = sparse;
+		} else {
+			int[] dense = new int[length];
+			for (int i = 0; i < count; i++) {
+				dense[indexes[i]] = items[i];
+			}
+			values = dense;
+			storage = null;
+		}
+	}
+	
+	/**
+	 * Tells whether the array has been given values, either in values or in storage.
+	 * 
+	 * @return True if the array has values
+	 */
+	public boolean hasValues() {
+		return values != null || storage != null;
+	}
+	
+	/**
+	 * Returns the number of items.
+	 * 
+	 * @return Number of items, 0 if the array has no values
+	 */
+	public int length() {
+		if (values != null) {
+			return values.length;
+		}
+		return storage == null ? 0 : storage.length();
+	}
+	
+	/**
+	 * Returns one item, from values or from storage.
+	 * 
+	 * @param index Index of the item
+	 * @return Value of the item
+	 * @throws IndexOutOfBoundsException If the index is out of bounds
+	 * @throws NullPointerException If the array has no values
+	 */
+	public int get(int index) {
+		int[] v = values;
+		return v != null ? v[index] : storage.get(index);
+	}
+	
+	/**
+	 * Sets one item, in values or in storage.
+	 * 
+	 * @param index Index of the item
+	 * @param value New value
+	 * @throws IndexOutOfBoundsException If the index is out of bounds
+	 * @throws NullPointerException If the array has no values
+	 */
+	public void set(int index, int value) {
+		int[] v = values;
+		if (v != null) {
+			v[index] = value;
+		} else {
+			storage.set(index, value);
+		}
+	}
+	
 	/* (non-Javadoc)
 	 * @see java.lang.Object#toString()
 	 */
 	public String toString() {
-		if (values == null || values.length == 0) {
+		int length = length();
+		if (length == 0) {
 			return name + "=[ ]";
 		}
 		StringBuilder sb = new StringBuilder();
 		sb.append(name);
 		sb.append("=[");
-		sb.append(values[0]);
-		for (int i=1; i < values.length; i++) {
+		sb.append(get(0));
+		for (int i=1; i < length; i++) {
 			sb.append(',');
-			sb.append(values[i]);
+			sb.append(get(i));
 		}
 		sb.append(']');
 		return sb.toString();
@@ -0,0 +1,36 @@
+package app;
+
+/**
+ * This interface is implemented by the places other than a plain int[] where the
+ * items of an Array can be kept. Items are numbered from 0 to length()-1.
+ *
+ * @author aravindm24
+ *
+ */
+public interface ArrayStorage {
+
+	/**
+	 * Returns the number of items.
+	 *
+	 * @return Number of items
+	 */
+	int length();
+
+	/**
+	 * Returns one item.
+	 *
+	 * @param index Index of the item
+	 * @return Value of the item
+	 * @throws IndexOutOfBoundsException If the index is not between 0 and length()-1
+	 */
+	int get(int index);
+
+	/**
+	 * Sets one item.
+	 *
+	 * @param index Index of the item
+	 * @param value New value
+	 * @throws IndexOutOfBoundsException If the index is not between 0 and length()-1
+	 */
+	void set(int index, int value);
+}
@@ -0,0 +1,115 @@
+package app;
+
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * This class evaluates one compiled expression over many rows of variable values.
+ * The input is columnar: there is one int array per simple variable, holding that
+ * variable's value in every row, while arrays are shared by all rows. Rows are
+ * evaluated in chunks, and the chunks are spread over all cores with fork/join.
+ *
+ * @author aravindm24
+ *
+ */
+public class BatchEvaluator {
+
+	/**
+	 * Number of rows below which a range is evaluated by one thread
+	 */
+	public static final int CHUNK = 4096;
+
+	/**
+	 * Evaluates the expression for every row, taking variable columns by name.
+	 *
+	 * @param expr The compiled expression
+	 * @param columns Column of values for every simple variable in the expression
+	 * @param symbols Symbol table with all arrays in the expression
+	 * @param rows Number of rows
+	 * @return Result of every row
+	 * @throws IllegalArgumentException If a variable has no column or a column is too short,
+	 * or an array is not in the table
+	 */
+	public static float[] evaluate(CompiledExpression expr, Map<String,int[]> columns,
+			SymbolTable symbols, int rows) {
+		int[][] cols = new int[expr.variableCount()][];
+		for (int slot = 0; slot < cols.length; slot++) {
+			cols[slot] = columns.get(expr.variableName(slot));
+			if (cols[slot] == null) {
+				throw new IllegalArgumentException("no column for variable " + expr.variableName(slot));
+			}
+		}
+		Array[] arrays = new Array[expr.arrayCount()];
+		for (int slot = 0; slot < arrays.length; slot++) {
+			arrays[slot] = symbols.getArray(expr.arrayName(slot));
+			if (arrays[slot] == null) {
+				throw new IllegalArgumentException("no value for array " + expr.arrayName(slot));
+			}
+		}
+		return evaluate(expr, cols, arrays, rows);
+	}
+
+	/**
+	 * Evaluates the expression for every row, with symbols already bound to slots.
+	 *
+	 * @param expr The compiled expression
+	 * @param columns Column of values for every simple variable, indexed by variable slot
+	 * @param arrays Every array, indexed by array slot
+	 * @param rows Number of rows
+	 * @return Result of every row
+	 * @throws IllegalArgumentException If there is a column missing or a column is too short
+	 */
+	public static float[] evaluate(CompiledExpression expr, int[][] columns, Array[] arrays, int rows) {
+		if (columns.length != expr.variableCount() || arrays.length != expr.arrayCount()) {
+			throw new IllegalArgumentException("expected " + expr.variableCount() + " columns and "
+					+ expr.arrayCount() + " arrays");
+		}
+		for (int slot = 0; slot < columns.length; slot++) {
+			if (columns[slot].length < rows) {
+				throw new IllegalArgumentException("column for " + expr.variableName(slot)
+						+ " has fewer than " + rows + " rows");
+			}
+		}
+		float[] results = new float[rows];
+		if (rows <= CHUNK) {
+			expr.evaluateRows(columns, arrays, 0, rows, results);
+		} else {
+			ForkJoinPool.commonPool().invoke(new Rows(expr, columns, arrays, 0, rows, results));
+		}
+		return results;
+	}
+
+	/**
+	 * Evaluates a range of rows, splitting it in half until it fits in a chunk.
+	 */
+	private static class Rows extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		final CompiledExpression expr;
+		final int[][] columns;
+		final Array[] arrays;
+		final int from, to;
+		final float[] results;
+
+		Rows(CompiledExpression expr, int[][] columns, Array[] arrays, int from, int to, float[] results) {
+			this.expr = expr;
+			this.columns = columns;
+			this.arrays = arrays;
+			this.from = from;
+			this.to = to;
+			this.results = results;
+		}
+
+		protected void compute() {
+			if (to - from <= CHUNK) {
+				expr.evaluateRows(columns, arrays, from, to, results);
+			} else {
+				int mid = (from + to) >>> 1;
+				invokeAll(new Rows(expr, columns, arrays, from, mid, results),
+						new Rows(expr, columns, arrays, mid, to, results));
+			}
+		}
+	}
+}
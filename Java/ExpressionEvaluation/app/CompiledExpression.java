@@ -0,0 +1,597 @@
+package app;
+
+import java.util.ArrayList;
+
+/**
+ * This class holds an expression that has been parsed once into a postfix program.
+ * The program refers to its variables and arrays by slot number, and the symbol values
+ * are supplied each time it is evaluated, so the same compiled expression can be
+ * evaluated any number of times with different values.
+ *
+ * The program is interpreted at first; once it has been evaluated JIT_THRESHOLD times,
+ * it is turned into bytecode (see KernelGenerator) and later evaluations call that
+ * instead. The program itself never changes, and instances may be shared between threads,
+ * but they are not immutable: each counts its evaluations, and holds its kernel once built.
+ * The count is a plain int, updated without synchronization, so when threads evaluate at
+ * once (as in BatchEvaluator) some updates are lost and the kernel comes a little later;
+ * this costs nothing in the results. The kernel is built once, under a lock, and published
+ * through a volatile field, so every thread sees either no kernel or a complete one.
+ *
+ * evaluate computes in float throughout, exactly as Expression.evaluate does. Since
+ * variables and array items are ints, evaluateExact and evaluateDouble instead compute
+ * every subexpression that has no division in it (an integer-only subexpression) in
+ * long arithmetic, and switch to float, or to double, only from the first division up.
+ * Which subexpressions are integer-only is worked out once, when the program is built.
+ *
+ * @author aravindm24
+ *
+ */
+public final class CompiledExpression {
+
+	/**
+	 * A compiled expression in bytecode form.
+	 */
+	public interface Kernel {
+
+		/**
+		 * Evaluates the expression with symbols already bound to slots.
+		 *
+		 * @param vars Value of every simple variable, indexed by variable slot
+		 * @param arrays Every array, indexed by array slot
+		 * @return Result of evaluation
+		 */
+		float eval(int[] vars, Array[] arrays);
+	}
+
+	/**
+	 * Number of evaluations after which the program is turned into bytecode, set by the
+	 * expression.jit.threshold system property; 0 turns bytecode generation off
+	 */
+	public static final int JIT_THRESHOLD = Integer.getInteger("expression.jit.threshold", 10000);
+
+	/**
+	 * Op codes. CONST and VAR push a value, INDEX replaces the index on top of
+	 * the stack with the array item at that index, and ADD to DIV combine the top two values.
+	 * STORE copies the top of the stack into a temporary, and LOAD pushes a temporary.
+	 */
+	static final byte CONST = 0, VAR = 1, INDEX = 2, ADD = 3, SUB = 4, MUL = 5, DIV = 6,
+			LOAD = 7, STORE = 8;
+
+	/**
+	 * Type flags of an instruction: its result is an integer, its left (or only)
+	 * operand is an integer, its right operand is an integer
+	 */
+	static final byte INTEGER = 1, LEFT_INTEGER = 2, RIGHT_INTEGER = 4;
+
+	/**
+	 * Source expression
+	 */
+	private final String expr;
+
+	/**
+	 * Op code of every instruction, in execution order
+	 */
+	final byte[] ops;
+
+	/**
+	 * Operand of every instruction: constant index for CONST, variable slot for VAR,
+	 * array slot for INDEX, temporary for LOAD and STORE, unused for operators
+	 */
+	final int[] args;
+
+	/**
+	 * Numeric literals in the expression
+	 */
+	final float[] constants;
+
+	/**
+	 * Names of simple variables, indexed by slot
+	 */
+	final String[] varNames;
+
+	/**
+	 * Names of arrays, indexed by slot
+	 */
+	final String[] arrayNames;
+
+	/**
+	 * Largest number of values on the stack at any point of the program
+	 */
+	final int maxDepth;
+
+	/**
+	 * Number of temporaries used by LOAD and STORE
+	 */
+	final int numTemps;
+
+	/**
+	 * Type flags of every instruction, for evaluateExact and evaluateDouble
+	 */
+	final byte[] types;
+
+	/**
+	 * Bytecode form of the program, once it has been generated
+	 */
+	private volatile Kernel kernel;
+
+	/**
+	 * Number of evaluations so far, counted until the kernel is generated, or -1 once
+	 * generating it has failed. A best-effort count: updates are not synchronized, so
+	 * some are lost when threads race, and a racing update may overwrite the -1, in which
+	 * case generating the kernel is tried once more.
+	 */
+	private int invocations;
+
+	CompiledExpression(String expr, byte[] ops, int[] args, float[] constants,
+			String[] varNames, String[] arrayNames) {
+		this.expr = expr;
+		this.ops = ops;
+		this.args = args;
+		this.constants = constants;
+		this.varNames = varNames;
+		this.arrayNames = arrayNames;
+
+		int depth = 0, max = 0, temps = 0;
+		for (int pc = 0; pc < ops.length; pc++) {
+			if (ops[pc] == CONST || ops[pc] == VAR || ops[pc] == LOAD) {
+				depth++;
+			} else if (ops[pc] == STORE) {
+				temps = Math.max(temps, args[pc]+1);
+			} else if (ops[pc] != INDEX) {
+				depth--;
+			}
+			max = Math.max(max, depth);
+		}
+		this.maxDepth = max;
+		this.numTemps = temps;
+		this.types = types();
+	}
+
+	/**
+	 * Works out which instructions give integers: array items, variables, whole number
+	 * constants, and sums, differences and products of integers.
+	 */
+	private byte[] types() {
+		byte[] t = new byte[ops.length];
+		boolean[] stack = new boolean[maxDepth];
+		boolean[] temps = new boolean[numTemps];
+		int top = 0;
+		for (int pc = 0; pc < ops.length; pc++) {
+			boolean integer;
+			switch (ops[pc]) {
+			case CONST:
+				float value = constants[args[pc]];
+				integer = value == Math.rint(value) && Math.abs(value) < 0x1p63f;
+				stack[top++] = integer;
+				break;
+			case VAR:
+				integer = true;
+				stack[top++] = true;
+				break;
+			case LOAD:
+				integer = temps[args[pc]];
+				stack[top++] = integer;
+				break;
+			case STORE:
+				integer = stack[top-1];
+				temps[args[pc]] = integer;
+				break;
+			case INDEX:
+				integer = true;
+				if (stack[top-1]) {
+					t[pc] |= LEFT_INTEGER;
+				}
+				stack[top-1] = true;
+				break;
+			default:
+				boolean left = stack[top-2], right = stack[top-1];
+				if (left) {
+					t[pc] |= LEFT_INTEGER;
+				}
+				if (right) {
+					t[pc] |= RIGHT_INTEGER;
+				}
+				integer = left && right && ops[pc] != DIV;
+				stack[--top - 1] = integer;
+			}
+			if (integer) {
+				t[pc] |= INTEGER;
+			}
+		}
+		return t;
+	}
+
+	/**
+	 * Returns the number of distinct simple variables in the expression.
+	 *
+	 * @return Number of variable slots
+	 */
+	public int variableCount() {
+		return varNames.length;
+	}
+
+	/**
+	 * Returns the name of the simple variable in a slot.
+	 *
+	 * @param slot Variable slot, 0 to variableCount()-1
+	 * @return Variable name
+	 */
+	public String variableName(int slot) {
+		return varNames[slot];
+	}
+
+	/**
+	 * Returns the number of distinct arrays in the expression.
+	 *
+	 * @return Number of array slots
+	 */
+	public int arrayCount() {
+		return arrayNames.length;
+	}
+
+	/**
+	 * Returns the name of the array in a slot.
+	 *
+	 * @param slot Array slot, 0 to arrayCount()-1
+	 * @return Array name
+	 */
+	public String arrayName(int slot) {
+		return arrayNames[slot];
+	}
+
+	/**
+	 * Evaluates the expression, looking up each symbol by name once per call.
+	 *
+	 * @param vars The variables array list, with values for all variables in the expression
+	 * @param arrays The arrays array list, with values for all array items
+	 * @return Result of evaluation
+	 * @throws IllegalArgumentException If a symbol in the expression is not in the lists
+	 */
+	public float evaluate(ArrayList<Variable> vars, ArrayList<Array> arrays) {
+		int[] values = new int[varNames.length];
+		for (int slot = 0; slot < varNames.length; slot++) {
+			values[slot] = findVar(varNames[slot], vars).value;
+		}
+		Array[] arrs = new Array[arrayNames.length];
+		for (int slot = 0; slot < arrayNames.length; slot++) {
+			arrs[slot] = findArray(arrayNames[slot], arrays);
+		}
+		return evaluate(values, arrs);
+	}
+
+	/**
+	 * Evaluates the expression, looking up each symbol in a symbol table once per call.
+	 *
+	 * @param symbols The symbol table, with values for all variables and array items in the expression
+	 * @return Result of evaluation
+	 * @throws IllegalArgumentException If a symbol in the expression is not in the table
+	 */
+	public float evaluate(SymbolTable symbols) {
+		return evaluate(bindVariables(symbols), bindArrays(symbols));
+	}
+
+	private int[] bindVariables(SymbolTable symbols) {
+		int[] values = new int[varNames.length];
+		for (int slot = 0; slot < varNames.length; slot++) {
+			Variable var = symbols.getVariable(varNames[slot]);
+			if (var == null) {
+				throw new IllegalArgumentException("no value for variable " + varNames[slot]);
+			}
+			values[slot] = var.value;
+		}
+		return values;
+	}
+
+	private Array[] bindArrays(SymbolTable symbols) {
+		Array[] arrs = new Array[arrayNames.length];
+		for (int slot = 0; slot < arrayNames.length; slot++) {
+			arrs[slot] = symbols.getArray(arrayNames[slot]);
+			if (arrs[slot] == null) {
+				throw new IllegalArgumentException("no value for array " + arrayNames[slot]);
+			}
+		}
+		return arrs;
+	}
+
+	private static Variable findVar(String name, ArrayList<Variable> vars) {
+		for (int i = 0; i < vars.size(); i++) {
+			if (vars.get(i).name.equals(name)) {
+				return vars.get(i);
+			}
+		}
+		throw new IllegalArgumentException("no value for variable " + name);
+	}
+
+	private static Array findArray(String name, ArrayList<Array> arrays) {
+		for (int i = 0; i < arrays.size(); i++) {
+			if (arrays.get(i).name.equals(name)) {
+				return arrays.get(i);
+			}
+		}
+		throw new IllegalArgumentException("no value for array " + name);
+	}
+
+	/**
+	 * Evaluates the expression with symbols already bound to slots.
+	 *
+	 * @param vars Value of every simple variable, indexed by variable slot
+	 * @param arrays Every array, indexed by array slot
+	 * @return Result of evaluation
+	 */
+	public float evaluate(int[] vars, Array[] arrays) {
+		Kernel k = kernel(1);
+		if (k != null) {
+			return k.eval(vars, arrays);
+		}
+		float[] stack = new float[maxDepth];
+		float[] temps = numTemps == 0 ? null : new float[numTemps];
+		int top = 0;
+
+		for (int pc = 0; pc < ops.length; pc++) {
+			switch (ops[pc]) {
+			case CONST:
+				stack[top++] = constants[args[pc]];
+				break;
+			case VAR:
+				stack[top++] = vars[args[pc]];
+				break;
+			case LOAD:
+				stack[top++] = temps[args[pc]];
+				break;
+			case STORE:
+				temps[args[pc]] = stack[top-1];
+				break;
+			default:
+				top = step(ops[pc], args[pc], stack, top, arrays);
+			}
+		}
+		return stack[0];
+	}
+
+	/**
+	 * Evaluates the expression with integer-only subexpressions computed exactly in long
+	 * arithmetic, and the rest in float. For integers below 2^24 in magnitude this gives
+	 * the same result as evaluate; above that, it does not lose their low bits.
+	 *
+	 * @param vars Value of every simple variable, indexed by variable slot
+	 * @param arrays Every array, indexed by array slot
+	 * @return Result of evaluation
+	 */
+	public float evaluateExact(int[] vars, Array[] arrays) {
+		return (float)evaluateTyped(vars, arrays, false);
+	}
+
+	/**
+	 * Evaluates the expression with integer-only subexpressions computed exactly in long
+	 * arithmetic, and the rest in double, for inputs too large for float.
+	 *
+	 * @param vars Value of every simple variable, indexed by variable slot
+	 * @param arrays Every array, indexed by array slot
+	 * @return Result of evaluation
+	 */
+	public double evaluateDouble(int[] vars, Array[] arrays) {
+		return evaluateTyped(vars, arrays, true);
+	}
+
+	/**
+	 * Evaluates the expression as evaluateExact does, looking up each symbol in a symbol
+	 * table once per call.
+	 *
+	 * @param symbols The symbol table, with values for all variables and array items in the expression
+	 * @return Result of evaluation
+	 * @throws IllegalArgumentException If a symbol in the expression is not in the table
+	 */
+	public float evaluateExact(SymbolTable symbols) {
+		return evaluateExact(bindVariables(symbols), bindArrays(symbols));
+	}
+
+	/**
+	 * Evaluates the expression as evaluateDouble does, looking up each symbol in a symbol
+	 * table once per call.
+	 *
+	 * @param symbols The symbol table, with values for all variables and array items in the expression
+	 * @return Result of evaluation
+	 * @throws IllegalArgumentException If a symbol in the expression is not in the table
+	 */
+	public double evaluateDouble(SymbolTable symbols) {
+		return evaluateDouble(bindVariables(symbols), bindArrays(symbols));
+	}
+
+	/**
+	 * Runs the program with integers on a long stack and other values on a double stack,
+	 * each instruction using the stack its type flags name. If an integer operation
+	 * overflows, the program is run again with every value on the double stack.
+	 *
+	 * @param wide True to compute in double, false to round every non-integer result to float
+	 */
+	private double evaluateTyped(int[] vars, Array[] arrays, boolean wide) {
+		try {
+			return evaluateTyped(vars, arrays, wide, types);
+		} catch (ArithmeticException e) {
+			return evaluateTyped(vars, arrays, wide, new byte[ops.length]);
+		}
+	}
+
+	private double evaluateTyped(int[] vars, Array[] arrays, boolean wide, byte[] types) {
+		long[] ints = new long[maxDepth];
+		double[] reals = new double[maxDepth];
+		long[] intTemps = numTemps == 0 ? null : new long[numTemps];
+		double[] realTemps = numTemps == 0 ? null : new double[numTemps];
+		int top = 0;
+
+		for (int pc = 0; pc < ops.length; pc++) {
+			byte t = types[pc];
+			int arg = args[pc];
+			switch (ops[pc]) {
+			case CONST:
+				if ((t & INTEGER) != 0) {
+					ints[top++] = (long)constants[arg];
+				} else {
+					reals[top++] = constants[arg];
+				}
+				break;
+			case VAR:
+				if ((t & INTEGER) != 0) {
+					ints[top++] = vars[arg];
+				} else {
+					reals[top++] = real(vars[arg], wide);
+				}
+				break;
+			case LOAD:
+				if ((t & INTEGER) != 0) {
+					ints[top++] = intTemps[arg];
+				} else {
+					reals[top++] = realTemps[arg];
+				}
+				break;
+			case STORE:
+				if ((t & INTEGER) != 0) {
+					intTemps[arg] = ints[top-1];
+				} else {
+					realTemps[arg] = reals[top-1];
+				}
+				break;
+			case INDEX:
+				int index = (t & LEFT_INTEGER) != 0 ? (int)ints[top-1] : (int)reals[top-1];
+				int item = arrays[arg].get(index);
+				if ((t & INTEGER) != 0) {
+					ints[top-1] = item;
+				} else {
+					reals[top-1] = real(item, wide);
+				}
+				break;
+			default:
+				top--;
+				if ((t & INTEGER) != 0) {
+					ints[top-1] = ops[pc] == ADD ? Math.addExact(ints[top-1], ints[top])
+							: ops[pc] == SUB ? Math.subtractExact(ints[top-1], ints[top])
+							: Math.multiplyExact(ints[top-1], ints[top]);
+					break;
+				}
+				double a = (t & LEFT_INTEGER) != 0 ? real(ints[top-1], wide) : reals[top-1];
+				double b = (t & RIGHT_INTEGER) != 0 ? real(ints[top], wide) : reals[top];
+				double r = ops[pc] == ADD ? a + b : ops[pc] == SUB ? a - b : ops[pc] == MUL ? a * b : a / b;
+				reals[top-1] = wide ? r : (float)r;
+			}
+		}
+		return (types[ops.length-1] & INTEGER) != 0 ? real(ints[0], wide) : reals[0];
+	}
+
+	/**
+	 * Converts an integer to the precision being computed in.
+	 */
+	private static double real(long value, boolean wide) {
+		return wide ? value : (float)value;
+	}
+
+	/**
+	 * Evaluates the expression for a range of rows of columnar input, where row r gives
+	 * each variable the value columns[slot][r].
+	 *
+	 * @param columns Values of every simple variable, one column per variable slot
+	 * @param arrays Every array, indexed by array slot
+	 * @param from First row
+	 * @param to Row just past the last row
+	 * @param results Receives the result of row r at results[r]
+	 */
+	void evaluateRows(int[][] columns, Array[] arrays, int from, int to, float[] results) {
+		Kernel k = kernel(to - from);
+		if (k != null) {
+			int[] vars = new int[columns.length];
+			for (int row = from; row < to; row++) {
+				for (int slot = 0; slot < vars.length; slot++) {
+					vars[slot] = columns[slot][row];
+				}
+				results[row] = k.eval(vars, arrays);
+			}
+			return;
+		}
+		float[] stack = new float[maxDepth];
+		float[] temps = numTemps == 0 ? null : new float[numTemps];
+
+		for (int row = from; row < to; row++) {
+			int top = 0;
+			for (int pc = 0; pc < ops.length; pc++) {
+				switch (ops[pc]) {
+				case CONST:
+					stack[top++] = constants[args[pc]];
+					break;
+				case VAR:
+					stack[top++] = columns[args[pc]][row];
+					break;
+				case LOAD:
+					stack[top++] = temps[args[pc]];
+					break;
+				case STORE:
+					temps[args[pc]] = stack[top-1];
+					break;
+				default:
+					top = step(ops[pc], args[pc], stack, top, arrays);
+				}
+			}
+			results[row] = stack[0];
+		}
+	}
+
+	/**
+	 * Counts evaluations, and generates the kernel when they reach the threshold.
+	 *
+	 * @param calls Number of evaluations about to be done
+	 * @return The kernel, or null if the program is still interpreted
+	 */
+	private Kernel kernel(int calls) {
+		Kernel k = kernel;
+		if (k != null || JIT_THRESHOLD <= 0 || invocations < 0) {
+			return k;
+		}
+		invocations += calls;
+		if (invocations >= JIT_THRESHOLD) {
+			synchronized (this) {
+				if (kernel == null && invocations >= 0) {
+					try {
+						kernel = KernelGenerator.generate(this);
+					} catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+						// stay interpreted
+					}
+					if (kernel == null) {
+						invocations = -1; // don't try again
+					}
+				}
+			}
+			return kernel;
+		}
+		return null;
+	}
+
+	/**
+	 * Runs an INDEX or operator instruction.
+	 *
+	 * @return New stack top
+	 */
+	private static int step(byte op, int arg, float[] stack, int top, Array[] arrays) {
+		switch (op) {
+		case INDEX:
+			stack[top-1] = arrays[arg].get((int)stack[top-1]);
+			return top;
+		case ADD:
+			stack[top-2] = stack[top-2] + stack[top-1];
+			break;
+		case SUB:
+			stack[top-2] = stack[top-2] - stack[top-1];
+			break;
+		case MUL:
+			stack[top-2] = stack[top-2] * stack[top-1];
+			break;
+		default:
+			stack[top-2] = stack[top-2] / stack[top-1];
+		}
+		return top - 1;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return expr;
+	}
+}
@@ -0,0 +1,249 @@
+package app;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * This class evaluates an element-wise expression, such as A[i]*B[i]+c, for every value
+ * of an index variable from 0 to n-1, and returns all the results at once. Rather than
+ * running the whole program once per index, it runs each instruction once per block of
+ * indexes, over columns of floats: an operator is a simple loop over two columns, and a
+ * subscript by the index variable itself, like A[i], is a straight copy out of the array.
+ * These loops have no branches or calls in them, so the JIT compiler turns them into SIMD
+ * instructions. Blocks are spread over all cores with fork/join, as in BatchEvaluator.
+ *
+ * Every index gets exactly the same float result as evaluating the expression with the
+ * index variable set to it.
+ *
+ * @author aravindm24
+ *
+ */
+public class ElementwiseEvaluator {
+
+	/**
+	 * Number of indexes whose columns are worked on together, small enough for the
+	 * columns to stay in the processor cache
+	 */
+	static final int BLOCK = 1024;
+
+	/**
+	 * Evaluates the expression for every index from 0 to n-1.
+	 *
+	 * @param expr The compiled expression
+	 * @param index Name of the index variable; it need not be in the symbol table
+	 * @param n Number of indexes
+	 * @param symbols Symbol table with all other variables and arrays in the expression
+	 * @return Result for every index
+	 * @throws IllegalArgumentException If a variable or array other than the index is not in the table
+	 */
+	public static float[] evaluate(CompiledExpression expr, String index, int n, SymbolTable symbols) {
+		int indexSlot = -1;
+		int[] vars = new int[expr.variableCount()];
+		for (int slot = 0; slot < vars.length; slot++) {
+			if (expr.variableName(slot).equals(index)) {
+				indexSlot = slot;
+				continue;
+			}
+			Variable var = symbols.getVariable(expr.variableName(slot));
+			if (var == null) {
+				throw new IllegalArgumentException("no value for variable " + expr.variableName(slot));
+			}
+			vars[slot] = var.value;
+		}
+		Array[] arrays = new Array[expr.arrayCount()];
+		for (int slot = 0; slot < arrays.length; slot++) {
+			arrays[slot] = symbols.getArray(expr.arrayName(slot));
+			if (arrays[slot] == null) {
+				throw new IllegalArgumentException("no value for array " + expr.arrayName(slot));
+			}
+		}
+		float[] results = new float[n];
+		Range range = new Range(expr, indexSlot, vars, arrays, 0, n, results);
+		if (n <= BatchEvaluator.CHUNK) {
+			range.run(0, n);
+		} else {
+			ForkJoinPool.commonPool().invoke(range);
+		}
+		return results;
+	}
+
+	/**
+	 * Evaluates the expression for every index from 0 to n-1, and returns the results
+	 * as a new array. Results are converted to int the same way a subscript is.
+	 *
+	 * @param name Name of the new array
+	 * @param expr The compiled expression
+	 * @param index Name of the index variable; it need not be in the symbol table
+	 * @param n Number of indexes, and of items in the new array
+	 * @param symbols Symbol table with all other variables and arrays in the expression
+	 * @return New array, with item k the result for index k
+	 * @throws IllegalArgumentException If a variable or array other than the index is not in the table
+	 */
+	public static Array evaluateArray(String name, CompiledExpression expr, String index, int n,
+			SymbolTable symbols) {
+		float[] results = evaluate(expr, index, n, symbols);
+		Array arr = new Array(name);
+		arr.values = new int[n];
+		for (int k = 0; k < n; k++) {
+			arr.values[k] = (int)results[k];
+		}
+		return arr;
+	}
+
+	/**
+	 * Evaluates a range of indexes, splitting it in half until it fits in a chunk.
+	 */
+	private static class Range extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		final CompiledExpression expr;
+		final int indexSlot;
+		final int[] vars;
+		final Array[] arrays;
+		final int from, to;
+		final float[] results;
+
+		Range(CompiledExpression expr, int indexSlot, int[] vars, Array[] arrays, int from, int to,
+				float[] results) {
+			this.expr = expr;
+			this.indexSlot = indexSlot;
+			this.vars = vars;
+			this.arrays = arrays;
+			this.from = from;
+			this.to = to;
+			this.results = results;
+		}
+
+		protected void compute() {
+			if (to - from <= BatchEvaluator.CHUNK) {
+				run(from, to);
+			} else {
+				int mid = (from + to) >>> 1;
+				invokeAll(new Range(expr, indexSlot, vars, arrays, from, mid, results),
+						new Range(expr, indexSlot, vars, arrays, mid, to, results));
+			}
+		}
+
+		/**
+		 * Runs the program over columns, one block of indexes at a time.
+		 */
+		void run(int start, int end) {
+			byte[] ops = expr.ops;
+			int[] args = expr.args;
+			float[][] stack = new float[expr.maxDepth][BLOCK];
+			float[][] temps = new float[expr.numTemps][BLOCK];
+
+			for (int base = start; base < end; base += BLOCK) {
+				int len = Math.min(BLOCK, end - base);
+				int top = 0;
+				for (int pc = 0; pc < ops.length; pc++) {
+					int arg = args[pc];
+					switch (ops[pc]) {
+					case CompiledExpression.CONST:
+						fill(stack[top++], len, expr.constants[arg]);
+						break;
+					case CompiledExpression.VAR:
+						if (arg == indexSlot) {
+							indexes(stack[top++], len, base);
+						} else {
+							fill(stack[top++], len, vars[arg]);
+						}
+						break;
+					case CompiledExpression.LOAD:
+						System.arraycopy(temps[arg], 0, stack[top++], 0, len);
+						break;
+					case CompiledExpression.STORE:
+						System.arraycopy(stack[top-1], 0, temps[arg], 0, len);
+						break;
+					case CompiledExpression.INDEX:
+						Array arr = arrays[arg];
+						if (pc > 0 && ops[pc-1] == CompiledExpression.VAR && args[pc-1] == indexSlot
+								&& arr.values != null) {
+							items(stack[top-1], len, arr.values, base);
+						} else {
+							gather(stack[top-1], len, arr);
+						}
+						break;
+					default:
+						top--;
+						combine(ops[pc], stack[top-1], stack[top], len);
+					}
+				}
+				System.arraycopy(stack[0], 0, results, base, len);
+			}
+		}
+	}
+
+	/*
+	 * Column loops, kept apart and free of branches so that each one is vectorized
+	 */
+
+	private static void fill(float[] c, int len, float value) {
+		for (int j = 0; j < len; j++) {
+			c[j] = value;
+		}
+	}
+
+	private static void indexes(float[] c, int len, int base) {
+		for (int j = 0; j < len; j++) {
+			c[j] = base + j;
+		}
+	}
+
+	/**
+	 * Subscript by the index variable itself: items base to base+len-1, in order. Like
+	 * every operand, the index is a float when it is used as a subscript, so from 2^24 on
+	 * it is rounded the same way here, and neighbouring indexes may read the same item.
+	 */
+	private static void items(float[] c, int len, int[] values, int base) {
+		int last = (int)(float)(base + len - 1);
+		if (last >= values.length) {
+			throw new ArrayIndexOutOfBoundsException("Index " + last
+					+ " out of bounds for length " + values.length);
+		}
+		for (int j = 0; j < len; j++) {
+			c[j] = values[(int)(float)(base + j)];
+		}
+	}
+
+	/**
+	 * Subscript by any other index column
+	 */
+	private static void gather(float[] c, int len, Array arr) {
+		int[] values = arr.values;
+		if (values != null) {
+			for (int j = 0; j < len; j++) {
+				c[j] = values[(int)c[j]];
+			}
+		} else {
+			for (int j = 0; j < len; j++) {
+				c[j] = arr.get((int)c[j]);
+			}
+		}
+	}
+
+	private static void combine(byte op, float[] a, float[] b, int len) {
+		switch (op) {
+		case CompiledExpression.ADD:
+			for (int j = 0; j < len; j++) {
+				a[j] = a[j] + b[j];
+			}
+			break;
+		case CompiledExpression.SUB:
+			for (int j = 0; j < len; j++) {
+				a[j] = a[j] - b[j];
+			}
+			break;
+		case CompiledExpression.MUL:
+			for (int j = 0; j < len; j++) {
+				a[j] = a[j] * b[j];
+			}
+			break;
+		default:
+			for (int j = 0; j < len; j++) {
+				a[j] = a[j] / b[j];
+			}
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package app;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This class holds the current version of a shared set of variable and array values,
+ * as an immutable Snapshot. Readers take the current snapshot, with a single volatile
+ * read and no lock, and evaluate against it for as long as they need a consistent view.
+ * Writers never change a published snapshot: they build the next version, copying only
+ * the variable table and the arrays that change, and publish it atomically. A reload
+ * from a values file builds a whole new version in the background and publishes it in
+ * one step, so readers see either all of the old values or all of the new ones.
+ *
+ * Concurrent writers do not lose each other's changes: each change is applied to the
+ * version current when it is published, and retried if another writer got there first.
+ *
+ * @author aravindm24
+ *
+ */
+public class Environment {
+
+	private final AtomicReference<Snapshot> current;
+
+	/**
+	 * Initializes with an empty version 0.
+	 */
+	public Environment() {
+		current = new AtomicReference<Snapshot>(new Snapshot(new SymbolTable(), 0));
+	}
+
+	/**
+	 * Returns the current version.
+	 *
+	 * @return Current snapshot
+	 */
+	public Snapshot snapshot() {
+		return current.get();
+	}
+
+	/**
+	 * Publishes a symbol table as the next version, replacing all values.
+	 *
+	 * @param symbols The symbol table; it is owned by the environment from now on, and
+	 * must not be changed by the caller
+	 * @return The published version
+	 */
+	public Snapshot publish(SymbolTable symbols) {
+		return current.updateAndGet(s -> new Snapshot(symbols, s.version() + 1));
+	}
+
+	/**
+	 * Loads every variable and array in a values file into a new symbol table, and
+	 * publishes it as the next version. Readers keep using the current version until
+	 * the load is complete.
+	 *
+	 * @param file Values file
+	 * @return The published version
+	 * @throws IOException If the file cannot be read, or is not in the values file format;
+	 * the current version is then left as it is
+	 */
+	public Snapshot reload(File file)
+	throws IOException {
+		SymbolTable symbols = new SymbolTable();
+		ValuesLoader.loadAll(file, symbols);
+		return publish(symbols);
+	}
+
+	/**
+	 * Publishes a version with one variable set.
+	 *
+	 * @param name Variable name
+	 * @param value New value
+	 * @return The published version
+	 */
+	public Snapshot setVariable(String name, int value) {
+		return current.updateAndGet(s -> s.withVariable(name, value, s.version() + 1));
+	}
+
+	/**
+	 * Publishes a version with all values of one array replaced.
+	 *
+	 * @param name Array name
+	 * @param values New values; owned by the environment from now on, and must not be
+	 * changed by the caller
+	 * @return The published version
+	 */
+	public Snapshot setArray(String name, int[] values) {
+		return current.updateAndGet(s -> s.withArray(name, values, s.version() + 1));
+	}
+
+	/**
+	 * Publishes a version with one array item set. The array is copied, so this is meant
+	 * for occasional changes; use setArray or reload to change many items at once.
+	 *
+	 * @param name Array name
+	 * @param index Index of the item
+	 * @param value New value
+	 * @return The published version
+	 * @throws IllegalArgumentException If there is no such array, it has no values, or its
+	 * items are kept in storage that cannot be copied
+	 */
+	public Snapshot setArrayValue(String name, int index, int value) {
+		return current.updateAndGet(s -> s.withArrayValue(name, index, value, s.version() + 1));
+	}
+}
@@ -1,16 +1,66 @@
 package app;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
 import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Evaluator {
 
 	/**
+	 * Directory in which large arrays are kept as memory-mapped files, from the system
+	 * property expression.map.dir; null (the default) keeps all arrays on the heap
+	 */
+	private static final File MAP_DIRECTORY = System.getProperty("expression.map.dir") == null
+			? null : new File(System.getProperty("expression.map.dir"));
+
+	/**
+	 * With no arguments, reads expressions and values file names interactively.
+	 * With arguments, runs in batch mode: java app.Evaluator records [results]
+	 * where records is a file of expression&lt;TAB&gt;values file lines ("-" for
+	 * standard input) and results is the output file (standard output if omitted).
+	 * With -snapshot values snapshot, converts a values file to a snapshot file, which
+	 * can then be given wherever a values file is asked for, and loads much faster.
+	 * Values files are kept loaded in a ValuesCache, and only read again when they change.
+	 *
 	 * @param args
 	 */
 	public static void main(String[] args) throws IOException {
+		if (args.length == 3 && args[0].equals("-snapshot")) {
+			SymbolTable symbols = new SymbolTable();
+			System.err.println(ValuesLoader.loadAll(new File(args[1]), symbols));
+			SnapshotFile.write(symbols, new File(args[2]));
+			return;
+		}
+		if (args.length > 0) {
+			BufferedReader in = args[0].equals("-")
+					? new BufferedReader(new InputStreamReader(System.in))
+					: new BufferedReader(new FileReader(args[0]));
+			Writer out = args.length > 1
+					? new BufferedWriter(new FileWriter(args[1]))
+					: new BufferedWriter(new OutputStreamWriter(System.out));
+			try {
+				batch(in, out, Runtime.getRuntime().availableProcessors());
+			} finally {
+				in.close();
+				out.close();
+			}
+			return;
+		}
+		ValuesCache cache = new ValuesCache(ValuesCache.DEFAULT_CAPACITY, MAP_DIRECTORY);
 		Scanner sc = new Scanner(System.in);
 		while (true) {
 			System.out.print("\nEnter the expression, or hit return to quit => ");
@@ -18,18 +68,112 @@ public class Evaluator {
 			if (expr.length() == 0) {
 				break;
 			}
-			ArrayList<Variable> vars = new ArrayList<>(); 
-			ArrayList<Array> arrays = new ArrayList<>();
-			Expression.makeVariableLists(expr, vars, arrays);
+			SymbolTable symbols = new SymbolTable();
+			Expression.makeVariableLists(expr, symbols);
 
 			System.out.print("Enter variable values file name, or hit return if no variables => ");
 			String fname = sc.nextLine();
 			if (fname.length() != 0) {
-				Scanner scfile = new Scanner(new File(fname));
-				Expression.loadVariableValues(scfile, vars, arrays);
+				ValuesCache.bind(symbols, cache.get(new File(fname)));
 			}
-			System.out.println("Value of expression = " + Expression.evaluate(expr,vars,arrays));
+			System.out.println("Value of expression = " + Expression.evaluate(expr,symbols));
 		}
 		sc.close();
+		System.err.println(cache);
+	}
+
+	/**
+	 * Evaluates a stream of records concurrently. Each record is a line with an expression,
+	 * a tab, and the name of its values file (which may be left out if the expression has
+	 * no variables). Values files are loaded through a ValuesCache, so a file is loaded once,
+	 * however many records name it, and shared by all of them. For each record, a line with
+	 * the expression, a tab, and the value (or the error) is written, in input order. A
+	 * timing summary is printed to standard error.
+	 *
+	 * @param in Reader for the records
+	 * @param out Writer for the results, flushed but not closed
+	 * @param threads Number of worker threads
+	 * @throws IOException If the records cannot be read or the results cannot be written
+	 */
+	public static void batch(BufferedReader in, Writer out, int threads)
+	throws IOException {
+		long start = System.nanoTime();
+		ValuesCache files = new ValuesCache(ValuesCache.DEFAULT_CAPACITY, MAP_DIRECTORY);
+		AtomicLong evalNanos = new AtomicLong();
+		AtomicInteger errors = new AtomicInteger();
+		//results not yet written, in input order; bounded so a long input is not all held at once
+		ArrayDeque<Future<String>> pending = new ArrayDeque<>();
+		int window = threads * 64;
+		int records = 0;
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.trim().length() == 0) {
+					continue;
+				}
+				int tab = line.indexOf('\t');
+				String expr = tab == -1 ? line : line.substring(0, tab);
+				String fname = tab == -1 ? "" : line.substring(tab+1).trim();
+				pending.add(pool.submit(() -> expr + "\t" + evaluate(expr, fname, files, evalNanos, errors)));
+				records++;
+				if (pending.size() >= window) {
+					write(pending.remove(), out);
+				}
+			}
+			while (!pending.isEmpty()) {
+				write(pending.remove(), out);
+			}
+			out.flush();
+		} finally {
+			pool.shutdownNow();
+		}
+
+		long wall = System.nanoTime() - start;
+		System.err.printf("%d records (%d errors), %d threads%n", records, errors.get(), threads);
+		System.err.println(files);
+		System.err.printf("loading %.3f ms, evaluating %.3f ms (summed over threads), wall %.3f ms, %.1f records/s%n",
+				files.loadNanos() / 1e6, evalNanos.get() / 1e6, wall / 1e6, records / (wall / 1e9));
+	}
+
+	private static void write(Future<String> result, Writer out)
+	throws IOException {
+		String line;
+		try {
+			line = result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while waiting for results");
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+		out.write(line);
+		out.write('\n');
+	}
+
+	/**
+	 * Evaluates one record, loading its values file unless it is in the cache.
+	 *
+	 * @return Value of the expression, or a description of the error
+	 */
+	private static String evaluate(String expr, String fname, ValuesCache files,
+			AtomicLong evalNanos, AtomicInteger errors) {
+		try {
+			SymbolTable values = fname.length() != 0 ? files.get(new File(fname)) : null;
+
+			long t = System.nanoTime();
+			SymbolTable symbols = new SymbolTable();
+			Expression.makeVariableLists(expr, symbols);
+			if (values != null) {
+				ValuesCache.bind(symbols, values);
+			}
+			float result = Expression.evaluate(expr, symbols);
+			evalNanos.addAndGet(System.nanoTime() - t);
+			return Float.toString(result);
+		} catch (Exception e) {
+			errors.incrementAndGet();
+			return "error (" + e + ")";
+		}
 	}
 }
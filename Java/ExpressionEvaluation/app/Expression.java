@@ -4,11 +4,35 @@ import java.io.*;
 import java.util.*;
 import java.util.regex.*;
 
-import structures.Stack;
+import structures.CharStack;
+import structures.FloatStack;
+import structures.IntStack;
 
 public class Expression {
 
 	public static String delims = " \t*+-/()[]";
+
+    /**
+     * Stacks and lexer used by evaluate and parse, kept per thread so that they are not
+     * allocated on every call. Neither method calls the other or itself, so one set per
+     * thread is enough; each call clears them before use.
+     */
+    private static final class Scratch {
+    	final FloatStack values = new FloatStack();
+    	final CharStack operations = new CharStack();
+    	final IntStack subscripted = new IntStack();
+    	final Lexer lex = new Lexer("");
+    	
+    	Scratch reset(String expr) {
+    		values.clear();
+    		operations.clear();
+    		subscripted.clear();
+    		lex.reset(expr);
+    		return this;
+    	}
+    }
+    
+    private static final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
 			
     /**
      * Populates the vars list with simple variables, and arrays lists with arrays
@@ -23,65 +47,54 @@ public class Expression {
      */
     public static void 
     makeVariableLists(String expr, ArrayList<Variable> vars, ArrayList<Array> arrays) {
-    	
-    	StringTokenizer s = new StringTokenizer(expr,delims);
-    	
-    	while(s.hasMoreTokens()) {
-    		String current = s.nextToken();
-    		
-    		if(isNumeric(current)) {
+    	SymbolTable symbols = new SymbolTable(vars, arrays);
+    	int numVars = vars.size(), numArrays = arrays.size();
+    	makeVariableLists(expr, symbols);
+    	for(int i = numVars; i < symbols.variableCount(); i++) {
+    		vars.add(symbols.variable(i));
+    	}
+    	for(int i = numArrays; i < symbols.arrayCount(); i++) {
+    		arrays.add(symbols.array(i));
+    	}
+    }
+    
+    /**
+     * Adds the simple variables and arrays in the expression to a symbol table. Symbols
+     * already in the table are kept as they are, new ones are set to zero.
+     * 
+     * @param expr The expression
+     * @param symbols The symbol table - already created by the caller
+     */
+    public static void
+    makeVariableLists(String expr, SymbolTable symbols) {
+    	Metrics.Probe probe = Metrics.ENABLED ? Metrics.start(Metrics.MAKE_VARIABLE_LISTS) : null;
+    	Lexer lex = new Lexer(expr);
+
+    	while(lex.next() != Lexer.END) {
+    		if(Metrics.ENABLED) {
+    			probe.phase(Metrics.TOKENIZE);
+    		}
+    		if(lex.type() != Lexer.NAME) {
     			continue;
     		}
-    		int indexAfterToken = expr.indexOf(current) + current.length();
-    		char c;
-    		
-    		if(indexAfterToken < expr.length()) {
-    			c = expr.charAt(indexAfterToken);
-    			
-    			if(c == '[') {
-    				addArray(current, arrays);
-        		}else {
-        			addVar(current,vars);
-        		}
-    		}else {
-    			addVar(current,vars);
+    		//a name is an array wherever it is immediately followed by a bracket
+    		if(lex.subscripted()) {
+    			if(symbols.arraySlot(expr, lex.start(), lex.end()) == -1) {
+    				symbols.addArray(lex.text());
+    			}
+    		}else if(symbols.variableSlot(expr, lex.start(), lex.end()) == -1) {
+    			symbols.addVariable(lex.text());
+    		}
+    		if(Metrics.ENABLED) {
+    			probe.lookup();
+    			probe.phase(Metrics.LOOKUP);
     		}
     	}
-    }
-    
-    private static boolean isNumeric(String str) {
-    	try {
-    		Float.parseFloat(str);
-    		return true;
-    	}catch(NumberFormatException e) {
-    		return false;
+    	if(Metrics.ENABLED) {
+    		probe.end(expr);
     	}
     }
-    
-    private static void addArray(String s, ArrayList<Array> arrays) {
-    	int i;
-		for(i = 0; i < arrays.size(); i++) {
-			if(arrays.get(i).name.equals(s)) {
-				break;
-			}
-		}
-		if(i == arrays.size()) {
-			arrays.add(new Array(s));
-		}
-	}
-    
-    private static void addVar(String s, ArrayList<Variable> vars) {
-    	int i;
-		for(i = 0; i < vars.size(); i++) {
-			if(vars.get(i).name.equals(s)) {
-				break;
-			}
-		}
-		if(i == vars.size()) {
-			vars.add(new Variable(s));
-		}
-	}
-    
+
     /**
      * Loads values for variables and arrays in the expression
      * 
@@ -93,33 +106,69 @@ public class Expression {
     public static void 
     loadVariableValues(Scanner sc, ArrayList<Variable> vars, ArrayList<Array> arrays) 
     throws IOException {
+    	loadVariableValues(sc, new SymbolTable(vars, arrays));
+    }
+    
+    /**
+     * Loads values for the variables and arrays in a symbol table. Lines for symbols
+     * that are not in the table are skipped.
+     * 
+     * @param sc Scanner for values input
+     * @param symbols The symbol table, previously populated by makeVariableLists
+     * @throws IOException If there is a problem with the input 
+     */
+    public static void 
+    loadVariableValues(Scanner sc, SymbolTable symbols) 
+    throws IOException {
+        Metrics.Probe probe = Metrics.ENABLED ? Metrics.start(Metrics.LOAD_VARIABLE_VALUES) : null;
         while (sc.hasNextLine()) {
             StringTokenizer st = new StringTokenizer(sc.nextLine().trim());
             int numTokens = st.countTokens();
             String tok = st.nextToken();
-            Variable var = new Variable(tok);
-            Array arr = new Array(tok);
-            int vari = vars.indexOf(var);
-            int arri = arrays.indexOf(arr);
-            if (vari == -1 && arri == -1) {
-            	continue;
+            if (Metrics.ENABLED) {
+                probe.phase(Metrics.TOKENIZE);
             }
-            int num = Integer.parseInt(st.nextToken());
             if (numTokens == 2) { // scalar symbol
-                vars.get(vari).value = num;
+                Variable var = symbols.getVariable(tok);
+                if (Metrics.ENABLED) {
+                    probe.lookup();
+                    probe.phase(Metrics.LOOKUP);
+                }
+                if (var != null) {
+                    var.value = Integer.parseInt(st.nextToken());
+                }
             } else { // array symbol
-            	arr = arrays.get(arri);
-            	arr.values = new int[num];
+                Array arr = symbols.getArray(tok);
+                if (Metrics.ENABLED) {
+                    probe.lookup();
+                    probe.phase(Metrics.LOOKUP);
+                }
+                if (arr == null) {
+                    continue;
+                }
+                int num = Integer.parseInt(st.nextToken());
                 // following are (index,val) pairs
-                while (st.hasMoreTokens()) {
+                int[] indexes = new int[st.countTokens()];
+                int[] items = new int[indexes.length];
+                for (int i = 0; i < indexes.length; i++) {
                     tok = st.nextToken();
                     StringTokenizer stt = new StringTokenizer(tok," (,)");
-                    int index = Integer.parseInt(stt.nextToken());
-                    int val = Integer.parseInt(stt.nextToken());
-                    arr.values[index] = val;              
+                    indexes[i] = Integer.parseInt(stt.nextToken());
+                    items[i] = Integer.parseInt(stt.nextToken());
+                }
+                if (Metrics.ENABLED) {
+                    probe.phase(Metrics.TOKENIZE);
+                }
+                // sparse or dense, depending on how many items are given
+                arr.setValues(num, indexes, items, indexes.length);
+                if (Metrics.ENABLED) {
+                    probe.phase(Metrics.ARRAY_ACCESS);
                 }
             }
         }
+        if (Metrics.ENABLED) {
+            probe.end("Scanner");
+        }
     }
     
     /**
@@ -131,155 +180,225 @@ public class Expression {
      */
     public static float 
     evaluate(String expr, ArrayList<Variable> vars, ArrayList<Array> arrays) {
-    	Stack<String> values = new Stack<String>();
-    	Stack<Character> operations = new Stack<Character>();
-    	
-    	StringTokenizer str = new StringTokenizer(expr,delims);
-    	String current = str.nextToken(); //starts with first token
-    	
-    	int i = 0;
-    	
-    	while(i < expr.length()) {
-    		if(expr.substring(i,i+current.length()).equals(current)) {
-    			//checks if the current index of the string we're at starts with a variable
-    			values.push(current);
-    			i += current.length();
-    			//move index past variable
-    			if(str.hasMoreElements()) {
-    				current = str.nextToken();
+    	return evaluate(expr, new SymbolTable(vars, arrays));
+    }
+    
+    /**
+     * Evaluates the expression, looking up symbols in a symbol table.
+     * 
+     * @param expr The expression
+     * @param symbols The symbol table, with values for all variables and array items in the expression
+     * @return Result of evaluation
+     */
+    public static float
+    evaluate(String expr, SymbolTable symbols) {
+    	Scratch s = scratch.get().reset(expr);
+    	//operands are kept as their float values
+    	FloatStack values = s.values;
+    	CharStack operations = s.operations;
+    	//slots of arrays whose subscript is being evaluated, innermost on top
+    	IntStack subscripted = s.subscripted;
+
+    	Metrics.Probe probe = Metrics.ENABLED ? Metrics.start(Metrics.EVALUATE) : null;
+    	Lexer lex = s.lex;
+    	int type;
+
+    	while((type = lex.next()) != Lexer.END) {
+    		if(Metrics.ENABLED) {
+    			probe.phase(Metrics.TOKENIZE);
+    		}
+    		if(type == Lexer.NUMBER) {
+    			values.push(lex.number());
+    		}else if(type == Lexer.NAME) {
+    			if(lex.subscripted()) {
+    				subscripted.push(symbols.arraySlot(expr, lex.start(), lex.end()));
     			}else {
-    				current = " ";
+    				values.push(symbols.variable(symbols.variableSlot(expr, lex.start(), lex.end())).value);
+    			}
+    			if(Metrics.ENABLED) {
+    				probe.lookup();
+    				probe.phase(Metrics.LOOKUP);
+    			}
+    		}else if(type == Lexer.OPERATOR) {
+    			char a = lex.symbol();
+    			//combine elements in the values stack if pushing the current operation means
+    			//that the operations stack will be unsorted by priority
+    			while(!operations.isEmpty() && hasPriority(a,operations.peek())) {
+    				reduce(values, operations.pop());
+    			}
+    			//push current char after operations stack has had all of its elements removed/used or if stack will stay sorted by priority when pushed
+    			operations.push(a);
+    			if(Metrics.ENABLED) {
+    				probe.phase(Metrics.REDUCE);
+    			}
+    		}else if(type == Lexer.OPEN) {
+    			operations.push(lex.symbol());
+    		}else if(lex.symbol() == ')') {
+    			//pop off operations from stack and perform operations until top element of stack is an open parentheses
+    			while(operations.peek() != '(') {
+    				reduce(values, operations.pop());
+    			}
+    			operations.pop();
+    			if(Metrics.ENABLED) {
+    				probe.phase(Metrics.REDUCE);
     			}
     		}else {
-    			char a = expr.charAt(i);
-    			
-    			if(isOperator(a)) {
-    				//checks if char at current index is a +,-,*, or /
-    				if(operations.isEmpty()) {
-    					operations.push(a);
-    				}else {
-    					//if operations stack isn't empty, then we combine elements in the values stack if pushing the current operation means 
-    					//that the operations stack will be unsorted by priority
-    					while(!operations.isEmpty() && hasPriority(a,operations.peek())) {
-    						String result = performOperation(values.pop(),values.pop(),operations.pop(),vars);
-    						values.push(result);
-    					}
-    					//push current char after operations stack has had all of its elements removed/used or if stack will stay sorted by priority when pushed
-    					operations.push(a);
-    				}
-    			}else if(a == '(' || a == '[') {
-    				operations.push(a);
-    			}else if(a == ')') {
-    				//pop off operations from stack and perform operations until top element of stack is an open parentheses
-    				while(operations.peek() != '(') {
-    					String result = performOperation(values.pop(),values.pop(),operations.pop(),vars);
-						values.push(result);
-    				}
-    				operations.pop();
-    			}else if(a == ']') {
-    				//pop off operations from stack and perform operations until top element of stack is an open bracket
-    				while(operations.peek() != '[') {
-    					String result = performOperation(values.pop(),values.pop(),operations.pop(),vars);
-						values.push(result);
-    				}
-    				//top element of values stack should be the index we calculated
-    				String temp = values.pop();
-    				float index;
-    				
-    				if(isNumeric(temp)) {
-    					index = Float.parseFloat(temp);
-    				}else {
-    					index = getVar(temp,vars).value;
-    				}
-    				
-    				int[] arr = getArray(values.pop(),arrays).values;
-    				
-    				values.push(Integer.toString(arr[(int)index]));
-    				
-    				operations.pop();
+    			//pop off operations from stack and perform operations until top element of stack is an open bracket
+    			while(operations.peek() != '[') {
+    				reduce(values, operations.pop());
+    			}
+    			if(Metrics.ENABLED) {
+    				probe.phase(Metrics.REDUCE);
+    			}
+    			//top element of values stack is the index we calculated, replace it with the array item
+    			values.set(symbols.array(subscripted.pop()).get((int)values.peek()));
+
+    			operations.pop();
+    			if(Metrics.ENABLED) {
+    				probe.phase(Metrics.ARRAY_ACCESS);
     			}
-    			
-    			i++;
+    		}
+    		if(Metrics.ENABLED) {
+    			probe.depth(values.size());
     		}
     	}
-    	
+
     	//the while loop below performs any remaining operations that were not already taken care of in the above while loop
     	while(!operations.isEmpty()) {
-    		String result = performOperation(values.pop(),values.pop(),operations.pop(),vars);
-			values.push(result);
+    		reduce(values, operations.pop());
     	}
-    	
-    	String end = values.pop();
-    	
-    	if(isNumeric(end)) {
-    		return Float.parseFloat(end);
-    	}else {
-    		return getVar(end,vars).value;
+
+    	float result = values.pop();
+    	if(Metrics.ENABLED) {
+    		probe.phase(Metrics.REDUCE);
+    		probe.end(expr);
     	}
+    	return result;
+    }
+
+    /**
+     * Parses the expression once into a program that can be evaluated any number of times
+     * with different variable values. Operators are grouped exactly as in evaluate, so both
+     * give the same result for the same values. The program is optimized so that constant
+     * subexpressions are computed at compile time, and repeated subexpressions once per evaluation.
+     * 
+     * @param expr The expression
+     * @return Compiled form of the expression
+     */
+    public static CompiledExpression 
+    compile(String expr) {
+    	return Optimizer.optimize(parse(expr));
     }
     
-    private static boolean isOperator(char c) {
-    	String str = "/*-+";
+    /**
+     * Parses the expression into a postfix program, without optimizing it.
+     */
+    private static CompiledExpression 
+    parse(String expr) {
+    	ArrayList<String> varNames = new ArrayList<String>();
+    	ArrayList<String> arrayNames = new ArrayList<String>();
+    	ArrayList<Float> constants = new ArrayList<Float>();
+    	//every instruction comes from at least one character of the expression
+    	byte[] ops = new byte[expr.length()];
+    	int[] args = new int[expr.length()];
+    	int n = 0;
     	
-    	for(int i = 0; i < str.length(); i++) {
-    		if(c == str.charAt(i)) {
-    			return true;
+    	Scratch s = scratch.get().reset(expr);
+    	CharStack operations = s.operations;
+    	IntStack subscripted = s.subscripted;
+
+    	Lexer lex = s.lex;
+    	int type;
+
+    	while((type = lex.next()) != Lexer.END) {
+    		if(type == Lexer.NUMBER) {
+    			ops[n] = CompiledExpression.CONST;
+    			args[n++] = constants.size();
+    			constants.add(lex.number());
+    		}else if(type == Lexer.NAME) {
+    			if(lex.subscripted()) {
+    				//array name waits until its closing bracket, where the INDEX is emitted
+    				subscripted.push(slot(lex.text(), arrayNames));
+    			}else {
+    				ops[n] = CompiledExpression.VAR;
+    				args[n++] = slot(lex.text(), varNames);
+    			}
+    		}else if(type == Lexer.OPERATOR) {
+    			char a = lex.symbol();
+    			while(!operations.isEmpty() && hasPriority(a,operations.peek())) {
+    				ops[n++] = opCode(operations.pop());
+    			}
+    			operations.push(a);
+    		}else if(type == Lexer.OPEN) {
+    			operations.push(lex.symbol());
+    		}else if(lex.symbol() == ')') {
+    			while(operations.peek() != '(') {
+    				ops[n++] = opCode(operations.pop());
+    			}
+    			operations.pop();
+    		}else {
+    			while(operations.peek() != '[') {
+    				ops[n++] = opCode(operations.pop());
+    			}
+    			operations.pop();
+    			ops[n] = CompiledExpression.INDEX;
+    			args[n++] = subscripted.pop();
     		}
     	}
+
+    	while(!operations.isEmpty()) {
+    		ops[n++] = opCode(operations.pop());
+    	}
     	
-    	return false;
+    	float[] consts = new float[constants.size()];
+    	for(int k = 0; k < consts.length; k++) {
+    		consts[k] = constants.get(k);
+    	}
+    	return new CompiledExpression(expr, Arrays.copyOf(ops, n), Arrays.copyOf(args, n), consts,
+    			varNames.toArray(new String[0]), arrayNames.toArray(new String[0]));
     }
     
-    private static boolean hasPriority(char a, char b) {
-    	String str = "/*-+([";
-    	
-    	return str.indexOf(a) > str.indexOf(b);
+    private static int slot(String name, ArrayList<String> names) {
+    	int i = names.indexOf(name);
+    	if(i == -1) {
+    		i = names.size();
+    		names.add(name);
+    	}
+    	return i;
     }
     
-    private static String performOperation(String operand1, String operand2, char c, ArrayList<Variable> vars) {
-    	float a,b,result;
-    	
-    	if(!isNumeric(operand1)) {
-			a = getVar(operand1,vars).value;
-		}else {
-			a = Float.parseFloat(operand1);
-		}
-    	
-    	if(!isNumeric(operand2)) {
-			b = getVar(operand2,vars).value;
-		}else {
-			b = Float.parseFloat(operand2);
-		}
-    	
+    private static byte opCode(char c) {
     	if(c == '/') {
-    		result = b / a;
+    		return CompiledExpression.DIV;
     	}else if(c == '*') {
-    		result = a * b;
+    		return CompiledExpression.MUL;
     	}else if(c == '-') {
-    		result = b - a;
+    		return CompiledExpression.SUB;
     	}else {
-    		result = a + b;
+    		return CompiledExpression.ADD;
     	}
+    }
+    
+    private static boolean hasPriority(char a, char b) {
+    	String str = "/*-+([";
     	
-    	return Float.toString(result);
-    			
+    	return str.indexOf(a) > str.indexOf(b);
     }
     
-    private static Variable getVar(String var, ArrayList<Variable> vars) {
-    	for(int i = 0; i < vars.size(); i++) {
-    		if(vars.get(i).name.equals(var)) {
-    			return vars.get(i);
-    		}
-    	}
-    	return null;
+    private static void reduce(FloatStack values, char c) {
+    	float a = values.pop();
+    	values.set(performOperation(a, values.peek(), c));
     }
     
-    private static Array getArray(String array, ArrayList<Array> arrays) {
-    	for(int i = 0; i < arrays.size(); i++) {
-    		if(arrays.get(i).name.equals(array)) {
-    			return arrays.get(i);
-    		}
+    private static float performOperation(float a, float b, char c) {
+    	if(c == '/') {
+    		return b / a;
+    	}else if(c == '*') {
+    		return a * b;
+    	}else if(c == '-') {
+    		return b - a;
+    	}else {
+    		return a + b;
     	}
-    	return null;
     }
 }
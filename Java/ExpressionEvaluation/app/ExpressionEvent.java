@@ -0,0 +1,49 @@
+package app;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event for one measured call of the expression engine, committed by Metrics.
+ *
+ * @author aravindm24
+ *
+ */
+@Name("app.Expression")
+@Label("Expression Operation")
+@Category("Expression Evaluation")
+@Description("One call of makeVariableLists, loadVariableValues or evaluate, with its phase times")
+final class ExpressionEvent extends jdk.jfr.Event {
+
+	@Label("Operation")
+	String operation;
+
+	@Label("Detail")
+	@Description("Expression, or values source")
+	String detail;
+
+	@Label("Tokenize Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long tokenizeNanos;
+
+	@Label("Lookup Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long lookupNanos;
+
+	@Label("Reduce Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long reduceNanos;
+
+	@Label("Array Access Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long arrayAccessNanos;
+
+	@Label("Symbol Lookups")
+	int lookups;
+
+	@Label("Max Stack Depth")
+	int maxStackDepth;
+}
@@ -0,0 +1,40 @@
+package app;
+
+import java.util.Map;
+
+/**
+ * This interface is the JMX view of Metrics, registered as app:type=ExpressionMetrics
+ * when metrics are enabled.
+ *
+ * @author aravindm24
+ *
+ */
+public interface ExpressionMetricsMXBean {
+
+	/**
+	 * Returns every counter by name, as Metrics.counters does.
+	 *
+	 * @return Counters
+	 */
+	Map<String,Long> getCounters();
+
+	/**
+	 * Returns the latency histogram of an operation, as Metrics.histogram does.
+	 *
+	 * @param operation makeVariableLists, loadVariableValues or evaluate
+	 * @return Number of calls in each bucket
+	 */
+	long[] getLatencyHistogram(String operation);
+
+	/**
+	 * Returns a readable summary, as Metrics.report does.
+	 *
+	 * @return Summary of the measurements
+	 */
+	String getReport();
+
+	/**
+	 * Sets every counter and histogram back to zero.
+	 */
+	void reset();
+}
@@ -0,0 +1,307 @@
+package app;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+
+/**
+ * This class turns a compiled expression into JVM bytecode: a hidden class in this
+ * package that implements CompiledExpression.Kernel with one straight-line eval method.
+ * Every instruction of the program becomes a few bytecodes, variables are read straight
+ * from the slot array, array items through Array.get (which the JIT compiler inlines),
+ * and temporaries become local variables, so the whole expression is compiled into one
+ * block of machine code.
+ *
+ * @author aravindm24
+ *
+ */
+final class KernelGenerator {
+
+	/**
+	 * Largest program that is turned into bytecode, well inside the 64K limit on method size
+	 */
+	static final int MAX_OPS = 4096;
+
+	private static final String CLASS = "app/CompiledKernel";
+	private static final String KERNEL = "app/CompiledExpression$Kernel";
+
+	/**
+	 * Bytecodes used
+	 */
+	private static final int ICONST_0 = 0x03, FCONST_0 = 0x0b, BIPUSH = 0x10, SIPUSH = 0x11, LDC_W = 0x13,
+			FLOAD = 0x17, ALOAD_0 = 0x2a, ALOAD_1 = 0x2b, ALOAD_2 = 0x2c, IALOAD = 0x2e, AALOAD = 0x32,
+			FSTORE = 0x38, DUP = 0x59, SWAP = 0x5f, FADD = 0x62, FSUB = 0x66, FMUL = 0x6a, FDIV = 0x6e,
+			I2F = 0x86, F2I = 0x8b, FRETURN = 0xae, RETURN = 0xb1, INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7, WIDE = 0xc4;
+
+	private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+	private final DataOutputStream cp = new DataOutputStream(pool);
+	private final HashMap<String,Integer> entries = new HashMap<String,Integer>();
+	private int count = 1;
+
+	private KernelGenerator() {
+	}
+
+	/**
+	 * Generates and loads the kernel for a compiled expression.
+	 *
+	 * @param expr The compiled expression
+	 * @return The kernel, or null if the program is too big to be worth generating
+	 * @throws ReflectiveOperationException If the generated class cannot be defined or instantiated
+	 */
+	static CompiledExpression.Kernel generate(CompiledExpression expr)
+	throws ReflectiveOperationException {
+		if (expr.ops.length > MAX_OPS) {
+			return null;
+		}
+		byte[] bytes;
+		try {
+			bytes = new KernelGenerator().classFile(expr);
+		} catch (IOException e) {
+			throw new IllegalStateException(e); // writing to memory does not fail
+		}
+		MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+		try {
+			return (CompiledExpression.Kernel)lookup.findConstructor(lookup.lookupClass(),
+					MethodType.methodType(void.class)).invoke();
+		} catch (ReflectiveOperationException | RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new IllegalStateException(t);
+		}
+	}
+
+	private byte[] classFile(CompiledExpression expr)
+	throws IOException {
+		int thisClass = classRef(CLASS);
+		int superClass = classRef("java/lang/Object");
+		int kernel = classRef(KERNEL);
+		int objectInit = methodRef("java/lang/Object", "<init>", "()V");
+		int init = utf8("<init>"), initType = utf8("()V");
+		int eval = utf8("eval"), evalType = utf8("([I[Lapp/Array;)F");
+		int code = utf8("Code");
+		byte[] evalCode = evalCode(expr);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0xCAFEBABE);
+		out.writeShort(0);
+		out.writeShort(52);
+		out.writeShort(count);
+		pool.writeTo(out);
+		out.writeShort(0x1031); // public final synthetic super
+		out.writeShort(thisClass);
+		out.writeShort(superClass);
+		out.writeShort(1);
+		out.writeShort(kernel);
+		out.writeShort(0); // fields
+		out.writeShort(2); // methods
+
+		byte[] initCode = {(byte)ALOAD_0, (byte)INVOKESPECIAL, (byte)(objectInit >> 8), (byte)objectInit, (byte)RETURN};
+		method(out, init, initType, code, 1, 1, initCode);
+		method(out, eval, evalType, code, expr.maxDepth + 3, 3 + expr.numTemps, evalCode);
+		out.writeShort(0); // attributes
+		return bytes.toByteArray();
+	}
+
+	private static void method(DataOutputStream out, int name, int type, int code, int maxStack, int maxLocals,
+			byte[] bytecode)
+	throws IOException {
+		out.writeShort(0x0001); // public
+		out.writeShort(name);
+		out.writeShort(type);
+		out.writeShort(1);
+		out.writeShort(code);
+		out.writeInt(12 + bytecode.length);
+		out.writeShort(maxStack);
+		out.writeShort(maxLocals);
+		out.writeInt(bytecode.length);
+		out.write(bytecode);
+		out.writeShort(0); // exception table
+		out.writeShort(0); // attributes
+	}
+
+	/**
+	 * Writes the body of eval(int[] vars, Array[] arrays). Local 1 is vars, local 2 is
+	 * arrays, and temporary t is local 3+t.
+	 */
+	private byte[] evalCode(CompiledExpression expr)
+	throws IOException {
+		int get = methodRef("app/Array", "get", "(I)I");
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+
+		for (int pc = 0; pc < expr.ops.length; pc++) {
+			int arg = expr.args[pc];
+			switch (expr.ops[pc]) {
+			case CompiledExpression.CONST:
+				float value = expr.constants[arg];
+				if (Float.floatToIntBits(value) == Float.floatToIntBits(0f)
+						|| value == 1f || value == 2f) {
+					out.write(FCONST_0 + (int)value);
+				} else {
+					out.write(LDC_W);
+					out.writeShort(floatConstant(value));
+				}
+				break;
+			case CompiledExpression.VAR:
+				out.write(ALOAD_1);
+				pushInt(out, arg);
+				out.write(IALOAD);
+				out.write(I2F);
+				break;
+			case CompiledExpression.INDEX:
+				out.write(F2I);
+				out.write(ALOAD_2);
+				pushInt(out, arg);
+				out.write(AALOAD);
+				out.write(SWAP);
+				out.write(INVOKEVIRTUAL);
+				out.writeShort(get);
+				out.write(I2F);
+				break;
+			case CompiledExpression.ADD:
+				out.write(FADD);
+				break;
+			case CompiledExpression.SUB:
+				out.write(FSUB);
+				break;
+			case CompiledExpression.MUL:
+				out.write(FMUL);
+				break;
+			case CompiledExpression.DIV:
+				out.write(FDIV);
+				break;
+			case CompiledExpression.STORE:
+				out.write(DUP);
+				local(out, FSTORE, 3 + arg);
+				break;
+			case CompiledExpression.LOAD:
+				local(out, FLOAD, 3 + arg);
+				break;
+			default:
+				throw new IllegalArgumentException("unknown op code " + expr.ops[pc]);
+			}
+		}
+		out.write(FRETURN);
+		return bytes.toByteArray();
+	}
+
+	private void pushInt(DataOutputStream out, int n)
+	throws IOException {
+		if (n <= 5) {
+			out.write(ICONST_0 + n);
+		} else if (n <= Byte.MAX_VALUE) {
+			out.write(BIPUSH);
+			out.write(n);
+		} else if (n <= Short.MAX_VALUE) {
+			out.write(SIPUSH);
+			out.writeShort(n);
+		} else {
+			out.write(LDC_W);
+			out.writeShort(intConstant(n));
+		}
+	}
+
+	private static void local(DataOutputStream out, int opcode, int index)
+	throws IOException {
+		if (index <= 255) {
+			out.write(opcode);
+			out.write(index);
+		} else {
+			out.write(WIDE);
+			out.write(opcode);
+			out.writeShort(index);
+		}
+	}
+
+	/*
+	 * Constant pool entries, each added once
+	 */
+
+	private int utf8(String s)
+	throws IOException {
+		Integer index = entries.get("U" + s);
+		if (index == null) {
+			cp.writeByte(1);
+			cp.writeUTF(s);
+			index = add("U" + s);
+		}
+		return index;
+	}
+
+	private int classRef(String name)
+	throws IOException {
+		int utf = utf8(name);
+		Integer index = entries.get("C" + name);
+		if (index == null) {
+			cp.writeByte(7);
+			cp.writeShort(utf);
+			index = add("C" + name);
+		}
+		return index;
+	}
+
+	private int nameAndType(String name, String type)
+	throws IOException {
+		int n = utf8(name), t = utf8(type);
+		Integer index = entries.get("N" + name + " " + type);
+		if (index == null) {
+			cp.writeByte(12);
+			cp.writeShort(n);
+			cp.writeShort(t);
+			index = add("N" + name + " " + type);
+		}
+		return index;
+	}
+
+	private int methodRef(String owner, String name, String type)
+	throws IOException {
+		return memberRef(10, owner, name, type);
+	}
+
+	private int memberRef(int tag, String owner, String name, String type)
+	throws IOException {
+		int c = classRef(owner), nt = nameAndType(name, type);
+		String key = tag + owner + "." + name + " " + type;
+		Integer index = entries.get(key);
+		if (index == null) {
+			cp.writeByte(tag);
+			cp.writeShort(c);
+			cp.writeShort(nt);
+			index = add(key);
+		}
+		return index;
+	}
+
+	private int floatConstant(float value)
+	throws IOException {
+		String key = "F" + Float.floatToIntBits(value);
+		Integer index = entries.get(key);
+		if (index == null) {
+			cp.writeByte(4);
+			cp.writeFloat(value);
+			index = add(key);
+		}
+		return index;
+	}
+
+	private int intConstant(int value)
+	throws IOException {
+		String key = "I" + value;
+		Integer index = entries.get(key);
+		if (index == null) {
+			cp.writeByte(3);
+			cp.writeInt(value);
+			index = add(key);
+		}
+		return index;
+	}
+
+	private int add(String key) {
+		entries.put(key, count);
+		return count++;
+	}
+}
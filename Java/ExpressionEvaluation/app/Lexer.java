@@ -0,0 +1,190 @@
+package app;
+
+/**
+ * This class splits an expression into number, name, operator and bracket tokens in a
+ * single left to right pass. Tokens are not materialized: after each call to next, the
+ * type and the start and end offsets of the current token can be read, and numbers are
+ * converted straight from the characters of the expression.
+ *
+ * Tokens are separated exactly as by a StringTokenizer on Expression.delims, so a
+ * number or name is a run of characters with no delimiter in it.
+ *
+ * @author aravindm24
+ *
+ */
+public class Lexer {
+
+	/**
+	 * Token types
+	 */
+	public static final int END = 0, NUMBER = 1, NAME = 2, OPERATOR = 3, OPEN = 4, CLOSE = 5;
+
+	/**
+	 * Expression being scanned
+	 */
+	private String expr;
+
+	/**
+	 * Offset at which the scan resumes
+	 */
+	private int pos;
+
+	/**
+	 * Type of the current token
+	 */
+	private int type;
+
+	/**
+	 * Offset of the first character of the current token
+	 */
+	private int start;
+
+	/**
+	 * Offset just past the last character of the current token
+	 */
+	private int end;
+
+	/**
+	 * Initializes to scan an expression from the beginning.
+	 *
+	 * @param expr The expression
+	 */
+	public Lexer(String expr) {
+		reset(expr);
+	}
+
+	/**
+	 * Restarts scanning, on the same or a different expression.
+	 *
+	 * @param expr The expression
+	 */
+	public void reset(String expr) {
+		this.expr = expr;
+		pos = 0;
+		type = END;
+		start = end = 0;
+	}
+
+	/**
+	 * Moves to the next token.
+	 *
+	 * @return Type of the token, END if there are no more tokens
+	 */
+	public int next() {
+		int len = expr.length();
+		while (pos < len && (expr.charAt(pos) == ' ' || expr.charAt(pos) == '\t')) {
+			pos++;
+		}
+		start = pos;
+		if (pos == len) {
+			end = pos;
+			return type = END;
+		}
+		char c = expr.charAt(pos);
+		switch (c) {
+		case '+': case '-': case '*': case '/':
+			type = OPERATOR;
+			break;
+		case '(': case '[':
+			type = OPEN;
+			break;
+		case ')': case ']':
+			type = CLOSE;
+			break;
+		default:
+			type = (c >= '0' && c <= '9') || c == '.' ? NUMBER : NAME;
+			do {
+				pos++;
+			} while (pos < len && !isDelimiter(expr.charAt(pos)));
+			end = pos;
+			return type;
+		}
+		end = ++pos;
+		return type;
+	}
+
+	private static boolean isDelimiter(char c) {
+		switch (c) {
+		case ' ': case '\t': case '+': case '-': case '*': case '/':
+		case '(': case ')': case '[': case ']':
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the type of the current token.
+	 *
+	 * @return Token type
+	 */
+	public int type() {
+		return type;
+	}
+
+	/**
+	 * Returns the offset of the first character of the current token.
+	 *
+	 * @return Start offset
+	 */
+	public int start() {
+		return start;
+	}
+
+	/**
+	 * Returns the offset just past the last character of the current token.
+	 *
+	 * @return End offset
+	 */
+	public int end() {
+		return end;
+	}
+
+	/**
+	 * Returns the operator or bracket character of the current token.
+	 *
+	 * @return One of + - * / ( ) [ ]
+	 */
+	public char symbol() {
+		return expr.charAt(start);
+	}
+
+	/**
+	 * Tells if the current name token is immediately followed by a '[', which
+	 * makes it an array name.
+	 *
+	 * @return True if the name is subscripted, false if not
+	 */
+	public boolean subscripted() {
+		return end < expr.length() && expr.charAt(end) == '[';
+	}
+
+	/**
+	 * Returns the value of the current number token. Whole numbers are converted
+	 * without creating any objects.
+	 *
+	 * @return Value of the number
+	 * @throws NumberFormatException If the token is not a valid number
+	 */
+	public float number() {
+		long n = 0;
+		for (int i = start; i < end; i++) {
+			char c = expr.charAt(i);
+			if (c < '0' || c > '9' || n > Long.MAX_VALUE / 10 - 9) {
+				// fractions, exponents and very long numbers take the exact route
+				return Float.parseFloat(text());
+			}
+			n = n*10 + (c - '0');
+		}
+		return n;
+	}
+
+	/**
+	 * Returns the text of the current token.
+	 *
+	 * @return Token text
+	 */
+	public String text() {
+		return expr.substring(start, end);
+	}
+}
@@ -0,0 +1,252 @@
+package app;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class keeps the items of an array in a memory-mapped file, outside the Java heap,
+ * so that arrays much larger than the heap can be evaluated without being read in, and
+ * without adding to garbage collection work. The operating system pages items in as
+ * they are read.
+ *
+ * The file is a 32 byte header followed by the items as little-endian ints. The header
+ * holds a magic number, the number of items, and the size and modification time of the
+ * values file the items were loaded from, so a later run can tell whether the mapped
+ * file is still current and use it as is instead of loading the values file again.
+ * A new file is written under a temporary name in the same directory, and only moved
+ * into place by complete, with the source stamp written, once it is complete; a file that is in use
+ * is never rewritten. An existing file is mapped copy-on-write, so items set in one run
+ * are not seen by other runs that map the same file.
+ *
+ * Files are mapped in chunks of 2^28 items (1GB), since a single mapping is limited to
+ * 2GB. Mappings are released by the garbage collector when the storage is no longer
+ * reachable; there is no way to unmap them sooner.
+ *
+ * @author aravindm24
+ *
+ */
+public final class MappedArrayStorage implements ArrayStorage {
+
+	private static final int MAGIC = 0x45584152; // "EXAR"
+	private static final int HEADER = 32;
+	private static final int SHIFT = 28;
+	private static final int MASK = (1 << SHIFT) - 1;
+
+	/**
+	 * Header fields, as byte offsets
+	 */
+	private static final int LENGTH_AT = 4, SOURCE_SIZE_AT = 8, SOURCE_TIME_AT = 16;
+
+	/**
+	 * Header of a mapped array file, or null for a view of items in some other file
+	 */
+	private final MappedByteBuffer header;
+
+	/**
+	 * Temporary file being written by create, and the file it is moved to by complete;
+	 * both null once it has been moved, and for files opened or viewed
+	 */
+	private File temp, target;
+
+	private final FileChannel.MapMode mode;
+	private final MappedByteBuffer[] maps;
+	private final IntBuffer[] chunks;
+	private final int length;
+
+	private MappedArrayStorage(FileChannel channel, int length, FileChannel.MapMode mode)
+	throws IOException {
+		this(channel, HEADER, length, mode, channel.map(mode, 0, HEADER));
+	}
+
+	private MappedArrayStorage(FileChannel channel, long offset, int length, FileChannel.MapMode mode,
+			MappedByteBuffer header)
+	throws IOException {
+		this.length = length;
+		this.header = header;
+		this.mode = mode;
+		if (header != null) {
+			header.order(ByteOrder.LITTLE_ENDIAN);
+		}
+		maps = new MappedByteBuffer[(int)(((long)length + MASK) >>> SHIFT)];
+		chunks = new IntBuffer[maps.length];
+		for (int k = 0; k < chunks.length; k++) {
+			long first = (long)k << SHIFT;
+			long count = Math.min(1L << SHIFT, length - first);
+			maps[k] = channel.map(mode, offset + first*4, count*4);
+			chunks[k] = maps[k].order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+		}
+	}
+
+	/**
+	 * Maps a block of little-endian ints in any file, read only, with no header. The
+	 * view can be read, but set throws ReadOnlyBufferException, and complete and
+	 * isCurrent may not be called.
+	 *
+	 * @param channel Channel of the file; the mapping stays valid after it is closed
+	 * @param offset Byte offset of the first item
+	 * @param length Number of items
+	 * @return Storage for the items
+	 * @throws IOException If the block cannot be mapped
+	 */
+	static MappedArrayStorage view(FileChannel channel, long offset, int length)
+	throws IOException {
+		return new MappedArrayStorage(channel, offset, length, FileChannel.MapMode.READ_ONLY, null);
+	}
+
+	/**
+	 * Creates a new mapped file with all items zero. The items are written to a temporary
+	 * file in the same directory, which replaces the file, if it exists, only when
+	 * complete is called.
+	 *
+	 * @param file File to create
+	 * @param length Number of items
+	 * @return Storage for the file's items
+	 * @throws IOException If the file cannot be created or mapped
+	 */
+	public static MappedArrayStorage create(File file, int length)
+	throws IOException {
+		if (length < 0) {
+			throw new IllegalArgumentException("negative length " + length);
+		}
+		File temp = File.createTempFile(file.getName() + ".", ".tmp", file.getAbsoluteFile().getParentFile());
+		try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			MappedArrayStorage storage = new MappedArrayStorage(channel, length, FileChannel.MapMode.READ_WRITE);
+			storage.header.putInt(0, MAGIC);
+			storage.header.putInt(LENGTH_AT, length);
+			storage.header.putLong(SOURCE_SIZE_AT, -1);
+			storage.header.putLong(SOURCE_TIME_AT, -1);
+			storage.temp = temp;
+			storage.target = file;
+			return storage;
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(temp.toPath());
+			throw e;
+		}
+	}
+
+	/**
+	 * Maps an existing file, written before by create. The file is never written: the
+	 * header is read only, and items are mapped copy-on-write, so set changes them for
+	 * this storage alone.
+	 *
+	 * @param file File to map
+	 * @return Storage for the file's items
+	 * @throws IOException If the file cannot be mapped, or is not a mapped array file
+	 */
+	public static MappedArrayStorage open(File file)
+	throws IOException {
+		//a copy-on-write mapping needs a channel open for writing, though nothing is written
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			if (channel.size() < HEADER) {
+				throw new IOException(file + " is not a mapped array file");
+			}
+			MappedByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER);
+			head.order(ByteOrder.LITTLE_ENDIAN);
+			int length = head.getInt(LENGTH_AT);
+			if (head.getInt(0) != MAGIC || length < 0 || channel.size() != HEADER + (long)length*4) {
+				throw new IOException(file + " is not a mapped array file");
+			}
+			return new MappedArrayStorage(channel, HEADER, length, FileChannel.MapMode.PRIVATE, head);
+		}
+	}
+
+	/**
+	 * Marks the items of a file made by create as loaded from a values file, writing its
+	 * size and modification time, and moves the file into place. The file may then be
+	 * shared with other runs, so it is mapped again, as by open, for further use.
+	 *
+	 * @param source Values file the items were loaded from
+	 * @return Storage for the file in place; this storage must not be used any more
+	 * @throws IOException If the file cannot be moved into place or mapped again
+	 * @throws IllegalStateException If the file was not made by create, or is already complete
+	 */
+	public MappedArrayStorage complete(File source)
+	throws IOException {
+		if (temp == null) {
+			throw new IllegalStateException("not a new mapped array file");
+		}
+		header.putLong(SOURCE_TIME_AT, source.lastModified());
+		header.putLong(SOURCE_SIZE_AT, source.length());
+		force();
+		try {
+			Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			discard();
+			throw e;
+		}
+		File file = target;
+		temp = target = null;
+		return open(file);
+	}
+
+	/**
+	 * Deletes the temporary file of a file made by create that is not to be completed,
+	 * as when loading its items failed. The storage must not be used any more.
+	 *
+	 * @throws IOException If the file cannot be deleted
+	 */
+	public void discard()
+	throws IOException {
+		if (temp != null) {
+			Files.deleteIfExists(temp.toPath());
+			temp = target = null;
+		}
+	}
+
+	/**
+	 * Tells whether the items were loaded from a values file as it is now, that is,
+	 * whether complete was called for a file of the same size and modification time.
+	 *
+	 * @param source Values file
+	 * @return True if the items are current for the file
+	 */
+	public boolean isCurrent(File source) {
+		return header.getLong(SOURCE_SIZE_AT) == source.length()
+				&& header.getLong(SOURCE_TIME_AT) == source.lastModified();
+	}
+
+	/**
+	 * Writes changed items to the file, if it was made by create; items of an opened
+	 * file are never written back.
+	 */
+	public void force() {
+		if (mode != FileChannel.MapMode.READ_WRITE) {
+			return;
+		}
+		for (MappedByteBuffer map : maps) {
+			map.force();
+		}
+		header.force();
+	}
+
+	/* (non-Javadoc)
+	 * @see app.ArrayStorage#length()
+	 */
+	public int length() {
+		return length;
+	}
+
+	/* (non-Javadoc)
+	 * @see app.ArrayStorage#get(int)
+	 */
+	public int get(int index) {
+		return chunks[index >>> SHIFT].get(index & MASK);
+	}
+
+	/* (non-Javadoc)
+	 * @see app.ArrayStorage#set(int, int)
+	 */
+	public void set(int index, int value) {
+		chunks[index >>> SHIFT].put(index & MASK, value);
+	}
+}
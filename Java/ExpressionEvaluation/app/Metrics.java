@@ -0,0 +1,322 @@
+package app;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * This class collects opt-in measurements of the expression engine: for each operation
+ * (makeVariableLists, loadVariableValues, evaluate), the number of calls, total time, a
+ * latency histogram, the time spent in each phase (tokenizing, symbol lookup, operator
+ * reduction, array access) and the number of symbol lookups, plus the largest operand
+ * stack depth seen by evaluate. Each call is also recorded as a JFR event, app.Expression,
+ * when a flight recording has it enabled.
+ *
+ * Measurements are turned on with the system property expression.metrics=true. ENABLED
+ * is a constant, so when it is false every check of it is removed by the JIT compiler and
+ * the engine runs exactly as without this class. When it is true, the measurements are
+ * also published as the MXBean app:type=ExpressionMetrics. Timing phases reads the clock
+ * once per token, which slows evaluation down noticeably; it is meant for finding where
+ * time goes, not for leaving on everywhere.
+ *
+ * @author aravindm24
+ *
+ */
+public final class Metrics {
+
+	/**
+	 * Whether measurements are taken (system property expression.metrics)
+	 */
+	public static final boolean ENABLED = Boolean.getBoolean("expression.metrics");
+
+	/**
+	 * Operations
+	 */
+	public static final int MAKE_VARIABLE_LISTS = 0, LOAD_VARIABLE_VALUES = 1, EVALUATE = 2;
+
+	/**
+	 * Phases of an operation
+	 */
+	public static final int TOKENIZE = 0, LOOKUP = 1, REDUCE = 2, ARRAY_ACCESS = 3;
+
+	static final String[] OPERATIONS = {"makeVariableLists", "loadVariableValues", "evaluate"};
+	static final String[] PHASES = {"tokenize", "lookup", "reduce", "arrayAccess"};
+
+	/**
+	 * Latency histogram buckets: bucket b counts calls that took from 2^(b-1) up to 2^b nanoseconds
+	 */
+	public static final int BUCKETS = 64;
+
+	private static final LongAdder[] calls = adders(OPERATIONS.length);
+	private static final LongAdder[] nanos = adders(OPERATIONS.length);
+	private static final LongAdder[] lookups = adders(OPERATIONS.length);
+	private static final LongAdder[] phaseNanos = adders(OPERATIONS.length * PHASES.length);
+	private static final AtomicLongArray[] histograms = new AtomicLongArray[OPERATIONS.length];
+	private static final AtomicInteger maxStackDepth = new AtomicInteger();
+
+	static {
+		for (int op = 0; op < histograms.length; op++) {
+			histograms[op] = new AtomicLongArray(BUCKETS);
+		}
+		if (ENABLED) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(),
+						new ObjectName("app:type=ExpressionMetrics"));
+			} catch (JMException e) {
+				//already registered by another class loader; measurements can still be read here
+			}
+		}
+	}
+
+	private Metrics() {
+	}
+
+	private static LongAdder[] adders(int n) {
+		LongAdder[] a = new LongAdder[n];
+		for (int i = 0; i < n; i++) {
+			a[i] = new LongAdder();
+		}
+		return a;
+	}
+
+	/**
+	 * Starts measuring one call of an operation. Only called when ENABLED.
+	 *
+	 * @param operation The operation
+	 * @return Probe to record the call's phases in
+	 */
+	static Probe start(int operation) {
+		return new Probe(operation);
+	}
+
+	/**
+	 * Returns the number of calls of an operation.
+	 *
+	 * @param operation MAKE_VARIABLE_LISTS, LOAD_VARIABLE_VALUES or EVALUATE
+	 * @return Number of calls
+	 */
+	public static long calls(int operation) {
+		return calls[operation].sum();
+	}
+
+	/**
+	 * Returns the total time spent in an operation.
+	 *
+	 * @param operation MAKE_VARIABLE_LISTS, LOAD_VARIABLE_VALUES or EVALUATE
+	 * @return Time, in nanoseconds
+	 */
+	public static long nanos(int operation) {
+		return nanos[operation].sum();
+	}
+
+	/**
+	 * Returns the total time spent in one phase of an operation.
+	 *
+	 * @param operation MAKE_VARIABLE_LISTS, LOAD_VARIABLE_VALUES or EVALUATE
+	 * @param phase TOKENIZE, LOOKUP, REDUCE or ARRAY_ACCESS
+	 * @return Time, in nanoseconds
+	 */
+	public static long phaseNanos(int operation, int phase) {
+		return phaseNanos[operation * PHASES.length + phase].sum();
+	}
+
+	/**
+	 * Returns the number of symbol lookups made by an operation.
+	 *
+	 * @param operation MAKE_VARIABLE_LISTS, LOAD_VARIABLE_VALUES or EVALUATE
+	 * @return Number of lookups
+	 */
+	public static long lookups(int operation) {
+		return lookups[operation].sum();
+	}
+
+	/**
+	 * Returns the largest number of operands that evaluate has held on its stack.
+	 *
+	 * @return Stack depth high-water mark
+	 */
+	public static int maxStackDepth() {
+		return maxStackDepth.get();
+	}
+
+	/**
+	 * Returns the latency histogram of an operation.
+	 *
+	 * @param operation MAKE_VARIABLE_LISTS, LOAD_VARIABLE_VALUES or EVALUATE
+	 * @return Number of calls in each of the BUCKETS buckets
+	 */
+	public static long[] histogram(int operation) {
+		long[] counts = new long[BUCKETS];
+		for (int b = 0; b < BUCKETS; b++) {
+			counts[b] = histograms[operation].get(b);
+		}
+		return counts;
+	}
+
+	/**
+	 * Returns every counter by name, such as "evaluate.calls", "evaluate.nanos",
+	 * "evaluate.lookups", "evaluate.reduce.nanos" and "maxStackDepth".
+	 *
+	 * @return Counters, in a fixed order
+	 */
+	public static Map<String,Long> counters() {
+		LinkedHashMap<String,Long> map = new LinkedHashMap<String,Long>();
+		for (int op = 0; op < OPERATIONS.length; op++) {
+			map.put(OPERATIONS[op] + ".calls", calls(op));
+			map.put(OPERATIONS[op] + ".nanos", nanos(op));
+			map.put(OPERATIONS[op] + ".lookups", lookups(op));
+			for (int phase = 0; phase < PHASES.length; phase++) {
+				map.put(OPERATIONS[op] + "." + PHASES[phase] + ".nanos", phaseNanos(op, phase));
+			}
+		}
+		map.put("maxStackDepth", (long)maxStackDepth());
+		return map;
+	}
+
+	/**
+	 * Sets every counter and histogram back to zero.
+	 */
+	public static void reset() {
+		for (int op = 0; op < OPERATIONS.length; op++) {
+			calls[op].reset();
+			nanos[op].reset();
+			lookups[op].reset();
+			for (int b = 0; b < BUCKETS; b++) {
+				histograms[op].set(b, 0);
+			}
+		}
+		for (LongAdder a : phaseNanos) {
+			a.reset();
+		}
+		maxStackDepth.set(0);
+	}
+
+	/**
+	 * Returns a readable summary, one line per operation that has been called.
+	 *
+	 * @return Summary of the measurements
+	 */
+	public static String report() {
+		StringBuilder sb = new StringBuilder();
+		for (int op = 0; op < OPERATIONS.length; op++) {
+			long n = calls(op);
+			if (n == 0) {
+				continue;
+			}
+			sb.append(String.format("%s: %d calls, %.3f ms, %.1f us/call, %.1f lookups/call",
+					OPERATIONS[op], n, nanos(op) / 1e6, nanos(op) / 1e3 / n, (double)lookups(op) / n));
+			for (int phase = 0; phase < PHASES.length; phase++) {
+				long t = phaseNanos(op, phase);
+				if (t != 0) {
+					sb.append(String.format(", %s %.3f ms", PHASES[phase], t / 1e6));
+				}
+			}
+			sb.append('\n');
+		}
+		sb.append("max stack depth ").append(maxStackDepth()).append('\n');
+		return sb.toString();
+	}
+
+	/**
+	 * Measurements of one call, added to the totals when it ends. Each phase is
+	 * charged with the time since the previous phase ended.
+	 */
+	static final class Probe {
+		private final int operation;
+		private final long start;
+		private long last;
+		private final long[] phases = new long[PHASES.length];
+		private int lookups;
+		private int depth;
+		private final ExpressionEvent event = new ExpressionEvent();
+
+		Probe(int operation) {
+			this.operation = operation;
+			event.begin();
+			start = last = System.nanoTime();
+		}
+
+		/**
+		 * Ends a phase, charging it with the time since the last phase ended.
+		 */
+		void phase(int phase) {
+			long now = System.nanoTime();
+			phases[phase] += now - last;
+			last = now;
+		}
+
+		void lookup() {
+			lookups++;
+		}
+
+		void depth(int size) {
+			if (size > depth) {
+				depth = size;
+			}
+		}
+
+		/**
+		 * Adds this call to the totals, and commits its JFR event.
+		 *
+		 * @param detail Expression or file name, for the event
+		 */
+		void end(String detail) {
+			long t = System.nanoTime() - start;
+			calls[operation].increment();
+			nanos[operation].add(t);
+			Metrics.lookups[operation].add(lookups);
+			histograms[operation].incrementAndGet(Math.min(64 - Long.numberOfLeadingZeros(t), BUCKETS - 1));
+			for (int phase = 0; phase < phases.length; phase++) {
+				if (phases[phase] != 0) {
+					phaseNanos[operation * PHASES.length + phase].add(phases[phase]);
+				}
+			}
+			maxStackDepth.accumulateAndGet(depth, Math::max);
+
+			event.end();
+			if (event.shouldCommit()) {
+				event.operation = OPERATIONS[operation];
+				event.detail = detail;
+				event.tokenizeNanos = phases[TOKENIZE];
+				event.lookupNanos = phases[LOOKUP];
+				event.reduceNanos = phases[REDUCE];
+				event.arrayAccessNanos = phases[ARRAY_ACCESS];
+				event.lookups = lookups;
+				event.maxStackDepth = depth;
+				event.commit();
+			}
+		}
+	}
+
+	/**
+	 * Publishes the measurements through JMX.
+	 */
+	private static class Bean implements ExpressionMetricsMXBean {
+		public Map<String,Long> getCounters() {
+			return counters();
+		}
+
+		public long[] getLatencyHistogram(String operation) {
+			for (int op = 0; op < OPERATIONS.length; op++) {
+				if (OPERATIONS[op].equals(operation)) {
+					return histogram(op);
+				}
+			}
+			throw new IllegalArgumentException("no operation " + operation);
+		}
+
+		public String getReport() {
+			return report();
+		}
+
+		public void reset() {
+			Metrics.reset();
+		}
+	}
+}
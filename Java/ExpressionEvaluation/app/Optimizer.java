@@ -0,0 +1,237 @@
+package app;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * This class rewrites a compiled expression so that repeated work is done once per
+ * evaluation. The postfix program is turned into a graph in which identical
+ * subexpressions are a single node, subexpressions made only of numbers are replaced
+ * by their value, and then the program is written back out. A subexpression that is
+ * used more than once, including an array item with the same array and index, is
+ * computed the first time it is needed and kept in a temporary for later uses.
+ *
+ * Nodes are combined in the same order as in the original program, so the optimized
+ * program gives exactly the same float results.
+ *
+ * @author aravindm24
+ *
+ */
+public class Optimizer {
+
+	/**
+	 * Op code, operand and children of every node. The operand of a CONST node is the
+	 * bit pattern of its value, of a VAR or INDEX node the variable or array slot.
+	 */
+	private final ArrayList<int[]> nodes = new ArrayList<int[]>();
+
+	/**
+	 * Node id of every distinct node, keyed by its op code, operand and children
+	 */
+	private final HashMap<String,Integer> ids = new HashMap<String,Integer>();
+
+	private Optimizer() {
+	}
+
+	/**
+	 * Optimizes a compiled expression.
+	 *
+	 * @param expr The compiled expression
+	 * @return Equivalent compiled expression with constants folded and
+	 * common subexpressions computed once
+	 */
+	public static CompiledExpression optimize(CompiledExpression expr) {
+		return new Optimizer().rewrite(expr);
+	}
+
+	private CompiledExpression rewrite(CompiledExpression expr) {
+		byte[] ops = expr.ops;
+		int[] args = expr.args;
+		int[] stack = new int[ops.length];
+		int top = 0;
+		//node id held in every temporary, if the program was optimized before
+		int[] temps = new int[ops.length];
+
+		for (int pc = 0; pc < ops.length; pc++) {
+			byte op = ops[pc];
+			if (op == CompiledExpression.CONST) {
+				stack[top++] = node(op, Float.floatToIntBits(expr.constants[args[pc]]), -1, -1);
+			} else if (op == CompiledExpression.VAR) {
+				stack[top++] = node(op, args[pc], -1, -1);
+			} else if (op == CompiledExpression.LOAD) {
+				stack[top++] = temps[args[pc]];
+			} else if (op == CompiledExpression.STORE) {
+				temps[args[pc]] = stack[top-1];
+			} else if (op == CompiledExpression.INDEX) {
+				stack[top-1] = node(op, args[pc], stack[top-1], -1);
+			} else {
+				int right = stack[--top], left = stack[top-1];
+				int[] l = nodes.get(left), r = nodes.get(right);
+				if (l[0] == CompiledExpression.CONST && r[0] == CompiledExpression.CONST) {
+					float value = fold(op, Float.intBitsToFloat(l[1]), Float.intBitsToFloat(r[1]));
+					stack[top-1] = node(CompiledExpression.CONST, Float.floatToIntBits(value), -1, -1);
+				} else {
+					stack[top-1] = node(op, 0, left, right);
+				}
+			}
+		}
+		int root = stack[0];
+
+		//count how many parents use each node that is reachable from the root
+		int[] uses = new int[nodes.size()];
+		countUses(root, uses);
+
+		Program out = new Program(nodes.size());
+		int[] temp = new int[nodes.size()];
+		Arrays.fill(temp, -1);
+		emit(root, uses, temp, out);
+
+		return new CompiledExpression(expr.toString(), Arrays.copyOf(out.ops, out.n),
+				Arrays.copyOf(out.args, out.n), out.constants(), expr.varNames, expr.arrayNames);
+	}
+
+	private static float fold(byte op, float left, float right) {
+		switch (op) {
+		case CompiledExpression.ADD:
+			return left + right;
+		case CompiledExpression.SUB:
+			return left - right;
+		case CompiledExpression.MUL:
+			return left * right;
+		default:
+			return left / right;
+		}
+	}
+
+	/**
+	 * Returns the id of the node with this op code, operand and children, creating
+	 * it if there isn't one yet.
+	 */
+	private int node(byte op, int arg, int left, int right) {
+		String key = op + ":" + arg + ":" + left + ":" + right;
+		Integer id = ids.get(key);
+		if (id == null) {
+			id = nodes.size();
+			nodes.add(new int[] {op, arg, left, right});
+			ids.put(key, id);
+		}
+		return id;
+	}
+
+	/**
+	 * Walks the graph from the root with an explicit stack, since a long chain of
+	 * operators is as deep as it is long.
+	 */
+	private void countUses(int root, int[] uses) {
+		int[] stack = new int[2*nodes.size() + 1];
+		int top = 0;
+		stack[top++] = root;
+		while (top > 0) {
+			int id = stack[--top];
+			if (uses[id]++ > 0) {
+				continue;
+			}
+			int[] node = nodes.get(id);
+			if (node[3] != -1) {
+				stack[top++] = node[3];
+			}
+			if (node[2] != -1) {
+				stack[top++] = node[2];
+			}
+		}
+	}
+
+	/**
+	 * Writes out the program for the graph from the root: children first, left before
+	 * right, with an explicit stack of the nodes being written and how far each has got.
+	 */
+	private void emit(int root, int[] uses, int[] temp, Program out) {
+		final int ENTER = 0, RIGHT = 1, EXIT = 2;
+		int[] stack = new int[nodes.size() + 1], state = new int[nodes.size() + 1];
+		int top = 0;
+		stack[top] = root;
+		state[top++] = ENTER;
+		while (top > 0) {
+			int id = stack[top-1];
+			int[] node = nodes.get(id);
+			byte op = (byte)node[0];
+			if (state[top-1] == ENTER) {
+				if (temp[id] != -1) {
+					out.add(CompiledExpression.LOAD, temp[id]);
+					top--;
+				} else if (op == CompiledExpression.CONST) {
+					out.add(op, out.constant(Float.intBitsToFloat(node[1])));
+					top--;
+				} else if (op == CompiledExpression.VAR) {
+					out.add(op, node[1]);
+					top--;
+				} else {
+					state[top-1] = node[3] != -1 ? RIGHT : EXIT;
+					stack[top] = node[2];
+					state[top++] = ENTER;
+				}
+			} else if (state[top-1] == RIGHT) {
+				state[top-1] = EXIT;
+				stack[top] = node[3];
+				state[top++] = ENTER;
+			} else {
+				out.add(op, node[1]);
+				if (uses[id] > 1) {
+					temp[id] = out.temps++;
+					out.add(CompiledExpression.STORE, temp[id]);
+				}
+				top--;
+			}
+		}
+	}
+
+	/**
+	 * Program being written out
+	 */
+	private static class Program {
+		byte[] ops;
+		int[] args;
+		int n;
+		int temps;
+		float[] consts = new float[4];
+		int numConsts;
+
+		/**
+		 * Index of every constant, keyed by its bit pattern
+		 */
+		HashMap<Integer,Integer> constIndex = new HashMap<Integer,Integer>();
+
+		Program(int numNodes) {
+			//every node is emitted once, and may be followed by a STORE or replaced by LOADs
+			ops = new byte[numNodes*4];
+			args = new int[numNodes*4];
+		}
+
+		void add(byte op, int arg) {
+			if (n == ops.length) {
+				ops = Arrays.copyOf(ops, n*2);
+				args = Arrays.copyOf(args, n*2);
+			}
+			ops[n] = op;
+			args[n++] = arg;
+		}
+
+		int constant(float value) {
+			Integer index = constIndex.get(Float.floatToIntBits(value));
+			if (index != null) {
+				return index;
+			}
+			constIndex.put(Float.floatToIntBits(value), numConsts);
+			if (numConsts == consts.length) {
+				consts = Arrays.copyOf(consts, numConsts*2);
+			}
+			consts[numConsts] = value;
+			return numConsts++;
+		}
+
+		float[] constants() {
+			return Arrays.copyOf(consts, numConsts);
+		}
+	}
+}
@@ -0,0 +1,396 @@
+package app;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * This class keeps the values of many named expressions up to date over a shared set
+ * of variables and arrays. Each expression is held as a graph of subexpressions, each
+ * with its last value. When a variable or an array item changes through this class,
+ * only the subexpressions that read it, and the subexpressions above them, are marked
+ * stale, and they alone are recomputed, children before parents.
+ *
+ * Array items are tracked one by one: a subscript depends on the item it read last,
+ * and on its index subexpression. Values must be changed through the set methods,
+ * not by writing Variable.value or Array.values directly, or the sheet will not see them.
+ *
+ * @author aravindm24
+ *
+ */
+public class Sheet {
+
+	/**
+	 * Variables and arrays read by the expressions
+	 */
+	private final SymbolTable symbols;
+
+	/**
+	 * Expressions, in the order they were defined
+	 */
+	private final ArrayList<Formula> formulas = new ArrayList<Formula>();
+
+	/**
+	 * Formula number of every expression name
+	 */
+	private final HashMap<String,Integer> names = new HashMap<String,Integer>();
+
+	/**
+	 * (formula, node) of every VAR node, by variable name
+	 */
+	private final HashMap<String,ArrayList<int[]>> varReaders = new HashMap<String,ArrayList<int[]>>();
+
+	/**
+	 * (formula, node) of every INDEX node, by array name
+	 */
+	private final HashMap<String,ArrayList<int[]>> arrayReaders = new HashMap<String,ArrayList<int[]>>();
+
+	/**
+	 * Number of node values computed since the sheet was created
+	 */
+	private long computed;
+
+	/**
+	 * Initializes with a symbol table for the variables and arrays.
+	 *
+	 * @param symbols The symbol table; symbols of defined expressions are added to it if missing
+	 */
+	public Sheet(SymbolTable symbols) {
+		this.symbols = symbols;
+	}
+
+	/**
+	 * Adds a named expression, and computes its value if every array it reads has values.
+	 * Otherwise the value is computed when it is first asked for.
+	 *
+	 * @param name Name of the expression
+	 * @param expr The expression
+	 * @throws IllegalArgumentException If there already is an expression with this name
+	 */
+	public void define(String name, String expr) {
+		if (names.containsKey(name)) {
+			throw new IllegalArgumentException(name + " is already defined");
+		}
+		Expression.makeVariableLists(expr, symbols);
+		Formula f = new Formula(Expression.compile(expr));
+		int id = formulas.size();
+		formulas.add(f);
+		names.put(name, id);
+
+		for (int n = 0; n < f.ops.length; n++) {
+			if (f.ops[n] == CompiledExpression.VAR) {
+				readers(varReaders, f.program.varNames[f.args[n]]).add(new int[] {id, n});
+			} else if (f.ops[n] == CompiledExpression.INDEX) {
+				readers(arrayReaders, f.program.arrayNames[f.args[n]]).add(new int[] {id, n});
+			}
+		}
+		if (f.hasValues()) {
+			f.recompute();
+		}
+	}
+
+	private static ArrayList<int[]> readers(HashMap<String,ArrayList<int[]>> map, String name) {
+		ArrayList<int[]> list = map.get(name);
+		if (list == null) {
+			list = new ArrayList<int[]>();
+			map.put(name, list);
+		}
+		return list;
+	}
+
+	/**
+	 * Returns the current value of a named expression, recomputing it first if needed.
+	 *
+	 * @param name Name of the expression
+	 * @return Value of the expression
+	 * @throws IllegalArgumentException If there is no expression with this name
+	 * @throws IllegalStateException If an array read by the expression has no values
+	 */
+	public float get(String name) {
+		Integer id = names.get(name);
+		if (id == null) {
+			throw new IllegalArgumentException(name + " is not defined");
+		}
+		Formula f = formulas.get(id);
+		f.recompute();
+		return f.values[f.root];
+	}
+
+	/**
+	 * Sets the value of a variable, marking the subexpressions that read it as stale.
+	 *
+	 * @param name Variable name
+	 * @param value New value
+	 * @throws IllegalArgumentException If there is no such variable
+	 */
+	public void setVariable(String name, int value) {
+		Variable var = symbols.getVariable(name);
+		if (var == null) {
+			throw new IllegalArgumentException("no variable " + name);
+		}
+		if (var.value == value) {
+			return;
+		}
+		var.value = value;
+		ArrayList<int[]> list = varReaders.get(name);
+		if (list != null) {
+			for (int[] reader : list) {
+				formulas.get(reader[0]).markStale(reader[1]);
+			}
+		}
+	}
+
+	/**
+	 * Sets one item of an array, marking the subscripts that last read that item as stale.
+	 *
+	 * @param name Array name
+	 * @param index Index of the item
+	 * @param value New value
+	 * @throws IllegalArgumentException If there is no such array, or it has no values
+	 */
+	public void setArrayValue(String name, int index, int value) {
+		Array arr = symbols.getArray(name);
+		if (arr == null || !arr.hasValues()) {
+			throw new IllegalArgumentException("no values for array " + name);
+		}
+		if (arr.get(index) == value) {
+			return;
+		}
+		arr.set(index, value);
+		ArrayList<int[]> list = arrayReaders.get(name);
+		if (list != null) {
+			for (int[] reader : list) {
+				Formula f = formulas.get(reader[0]);
+				if (f.cells[reader[1]] == index) {
+					f.markStale(reader[1]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Replaces all values of an array, marking every subscript of it as stale.
+	 *
+	 * @param name Array name
+	 * @param values New values
+	 * @throws IllegalArgumentException If there is no such array
+	 */
+	public void setArray(String name, int[] values) {
+		Array arr = symbols.getArray(name);
+		if (arr == null) {
+			throw new IllegalArgumentException("no array " + name);
+		}
+		arr.values = values;
+		arr.storage = null;
+		ArrayList<int[]> list = arrayReaders.get(name);
+		if (list != null) {
+			for (int[] reader : list) {
+				formulas.get(reader[0]).markStale(reader[1]);
+			}
+		}
+	}
+
+	/**
+	 * Recomputes every stale subexpression of every expression.
+	 *
+	 * @return Number of subexpression values computed
+	 * @throws IllegalStateException If an array read by an expression has no values
+	 */
+	public long recalculate() {
+		long before = computed;
+		for (Formula f : formulas) {
+			f.recompute();
+		}
+		return computed - before;
+	}
+
+	/**
+	 * Returns the number of subexpression values computed since the sheet was created.
+	 *
+	 * @return Number of values computed
+	 */
+	public long computed() {
+		return computed;
+	}
+
+	/**
+	 * One expression, as a graph with one node per distinct subexpression. Nodes are
+	 * numbered in program order, so every node comes after its children.
+	 */
+	private class Formula {
+		final CompiledExpression program;
+		final byte[] ops;
+		final int[] args;
+		final int[] left, right;
+		final int[][] parents;
+		final int root;
+		final float[] values;
+
+		/**
+		 * Variables and arrays of the program, by slot
+		 */
+		final Variable[] vars;
+		final Array[] arrays;
+
+		/**
+		 * Array index last read by every INDEX node, -1 for other nodes
+		 */
+		final int[] cells;
+
+		/**
+		 * Nodes whose value is out of date
+		 */
+		final BitSet stale = new BitSet();
+
+		/**
+		 * Worklist of markStale, one slot per node
+		 */
+		final int[] work;
+
+		Formula(CompiledExpression program) {
+			this.program = program;
+			vars = new Variable[program.varNames.length];
+			for (int slot = 0; slot < vars.length; slot++) {
+				vars[slot] = symbols.getVariable(program.varNames[slot]);
+			}
+			arrays = new Array[program.arrayNames.length];
+			for (int slot = 0; slot < arrays.length; slot++) {
+				arrays[slot] = symbols.getArray(program.arrayNames[slot]);
+			}
+			int size = program.ops.length;
+			byte[] op = new byte[size];
+			int[] arg = new int[size], l = new int[size], r = new int[size];
+			int[] stack = new int[size];
+			int[] temps = new int[program.numTemps];
+			int n = 0, top = 0;
+
+			for (int pc = 0; pc < size; pc++) {
+				byte code = program.ops[pc];
+				if (code == CompiledExpression.STORE) {
+					temps[program.args[pc]] = stack[top-1];
+					continue;
+				}
+				if (code == CompiledExpression.LOAD) {
+					stack[top++] = temps[program.args[pc]];
+					continue;
+				}
+				op[n] = code;
+				arg[n] = program.args[pc];
+				l[n] = r[n] = -1;
+				if (code == CompiledExpression.INDEX) {
+					l[n] = stack[--top];
+				} else if (code != CompiledExpression.CONST && code != CompiledExpression.VAR) {
+					r[n] = stack[--top];
+					l[n] = stack[--top];
+				}
+				stack[top++] = n++;
+			}
+			ops = Arrays.copyOf(op, n);
+			args = Arrays.copyOf(arg, n);
+			left = Arrays.copyOf(l, n);
+			right = Arrays.copyOf(r, n);
+			root = stack[0];
+			values = new float[n];
+			cells = new int[n];
+			Arrays.fill(cells, -1);
+			work = new int[n];
+
+			int[] numParents = new int[n];
+			for (int i = 0; i < n; i++) {
+				if (left[i] != -1) {
+					numParents[left[i]]++;
+				}
+				if (right[i] != -1 && right[i] != left[i]) {
+					numParents[right[i]]++;
+				}
+			}
+			parents = new int[n][];
+			for (int i = 0; i < n; i++) {
+				parents[i] = new int[numParents[i]];
+				numParents[i] = 0;
+			}
+			for (int i = 0; i < n; i++) {
+				if (left[i] != -1) {
+					parents[left[i]][numParents[left[i]]++] = i;
+				}
+				if (right[i] != -1 && right[i] != left[i]) {
+					parents[right[i]][numParents[right[i]]++] = i;
+				}
+			}
+			stale.set(0, n);
+		}
+
+		/**
+		 * Marks a node and every node above it as stale, with a worklist of the nodes
+		 * newly marked, so that a deep graph does not recurse once per level.
+		 */
+		void markStale(int node) {
+			if (stale.get(node)) {
+				return;
+			}
+			stale.set(node);
+			int top = 0;
+			work[top++] = node;
+			while (top > 0) {
+				for (int p : parents[work[--top]]) {
+					if (!stale.get(p)) {
+						//every node is marked, and so pushed, at most once
+						stale.set(p);
+						work[top++] = p;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Tells if every array read by the expression has values.
+		 */
+		boolean hasValues() {
+			for (Array arr : arrays) {
+				if (!arr.hasValues()) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		void recompute() {
+			if (stale.isEmpty()) {
+				return;
+			}
+			for (Array arr : arrays) {
+				if (!arr.hasValues()) {
+					throw new IllegalStateException("no values for array " + arr.name);
+				}
+			}
+			for (int n = stale.nextSetBit(0); n >= 0; n = stale.nextSetBit(n+1)) {
+				switch (ops[n]) {
+				case CompiledExpression.CONST:
+					values[n] = program.constants[args[n]];
+					break;
+				case CompiledExpression.VAR:
+					values[n] = vars[args[n]].value;
+					break;
+				case CompiledExpression.INDEX:
+					cells[n] = (int)values[left[n]];
+					values[n] = arrays[args[n]].get(cells[n]);
+					break;
+				case CompiledExpression.ADD:
+					values[n] = values[left[n]] + values[right[n]];
+					break;
+				case CompiledExpression.SUB:
+					values[n] = values[left[n]] - values[right[n]];
+					break;
+				case CompiledExpression.MUL:
+					values[n] = values[left[n]] * values[right[n]];
+					break;
+				default:
+					values[n] = values[left[n]] / values[right[n]];
+				}
+				computed++;
+			}
+			stale.clear();
+		}
+	}
+}
@@ -0,0 +1,248 @@
+package app;
+
+import java.util.ArrayList;
+
+/**
+ * This class is one immutable version of a set of variable and array values. A snapshot
+ * owns its symbol table and never changes it, so any number of threads may evaluate
+ * expressions against the same snapshot at once without locking, and all of them see
+ * the same values for as long as they hold it. New versions are made by copying only
+ * what changes (see the with methods) and published through an Environment.
+ *
+ * Arrays are shared between versions that do not change them. Item storage other than
+ * an int[] (a mapped file, say) is shared as is, and must not be written to once it is
+ * in a snapshot.
+ *
+ * @author aravindm24
+ *
+ */
+public final class Snapshot {
+
+	/**
+	 * Values of this version; never changed after construction
+	 */
+	private final SymbolTable symbols;
+
+	private final long version;
+
+	/**
+	 * Initializes with a symbol table that no one else refers to.
+	 *
+	 * @param symbols Symbol table, owned by the snapshot from now on
+	 * @param version Version number
+	 */
+	Snapshot(SymbolTable symbols, long version) {
+		this.symbols = symbols;
+		this.version = version;
+	}
+
+	/**
+	 * Makes a snapshot of the current values in a symbol table. Variables and arrays are
+	 * copied, so later changes to the table are not seen by the snapshot.
+	 *
+	 * @param symbols The symbol table
+	 * @return Snapshot of its values, with version 0
+	 */
+	public static Snapshot copyOf(SymbolTable symbols) {
+		ArrayList<Variable> vars = new ArrayList<Variable>(symbols.variableCount());
+		for (int slot = 0; slot < symbols.variableCount(); slot++) {
+			vars.add(copy(symbols.variable(slot)));
+		}
+		ArrayList<Array> arrays = new ArrayList<Array>(symbols.arrayCount());
+		for (int slot = 0; slot < symbols.arrayCount(); slot++) {
+			arrays.add(copy(symbols.array(slot)));
+		}
+		return new Snapshot(new SymbolTable(vars, arrays), 0);
+	}
+
+	/**
+	 * Returns the version number, which grows by one with every version published
+	 * by an Environment.
+	 *
+	 * @return Version number
+	 */
+	public long version() {
+		return version;
+	}
+
+	/**
+	 * Returns the value of a variable.
+	 *
+	 * @param name Variable name
+	 * @return Value of the variable
+	 * @throws IllegalArgumentException If there is no such variable
+	 */
+	public int getVariable(String name) {
+		Variable var = symbols.getVariable(name);
+		if (var == null) {
+			throw new IllegalArgumentException("no variable " + name);
+		}
+		return var.value;
+	}
+
+	/**
+	 * Returns one item of an array.
+	 *
+	 * @param name Array name
+	 * @param index Index of the item
+	 * @return Value of the item
+	 * @throws IllegalArgumentException If there is no such array, or it has no values
+	 */
+	public int getArrayValue(String name, int index) {
+		Array arr = symbols.getArray(name);
+		if (arr == null || !arr.hasValues()) {
+			throw new IllegalArgumentException("no values for array " + name);
+		}
+		return arr.get(index);
+	}
+
+	/**
+	 * Evaluates an expression with the values of this version.
+	 *
+	 * @param expr The expression
+	 * @return Result of evaluation
+	 * @throws IllegalArgumentException If a symbol in the expression has no value in this version
+	 */
+	public float evaluate(String expr) {
+		//check first, as the compiled overload does, rather than fail on a missing slot
+		Lexer lex = new Lexer(expr);
+		while (lex.next() != Lexer.END) {
+			if (lex.type() != Lexer.NAME) {
+				continue;
+			}
+			if (lex.subscripted()) {
+				if (symbols.arraySlot(expr, lex.start(), lex.end()) == -1) {
+					throw new IllegalArgumentException("no value for array " + lex.text());
+				}
+			} else if (symbols.variableSlot(expr, lex.start(), lex.end()) == -1) {
+				throw new IllegalArgumentException("no value for variable " + lex.text());
+			}
+		}
+		return Expression.evaluate(expr, symbols);
+	}
+
+	/**
+	 * Evaluates a compiled expression with the values of this version.
+	 *
+	 * @param expr The compiled expression
+	 * @return Result of evaluation
+	 * @throws IllegalArgumentException If a symbol in the expression has no value in this version
+	 */
+	public float evaluate(CompiledExpression expr) {
+		return expr.evaluate(symbols);
+	}
+
+	/**
+	 * Returns a new version with one variable set, adding the variable if it is missing.
+	 *
+	 * @param name Variable name
+	 * @param value New value
+	 * @param version Version number of the new snapshot
+	 * @return The new version
+	 */
+	Snapshot withVariable(String name, int value, long version) {
+		SymbolTable table = share();
+		int slot = table.addVariable(name);
+		Variable var = new Variable(name);
+		var.value = value;
+		return new Snapshot(replace(table, slot, var), version);
+	}
+
+	/**
+	 * Returns a new version with all values of one array replaced, adding the array if
+	 * it is missing.
+	 *
+	 * @param name Array name
+	 * @param values New values, owned by the snapshot from now on
+	 * @param version Version number of the new snapshot
+	 * @return The new version
+	 */
+	Snapshot withArray(String name, int[] values, long version) {
+		Array arr = new Array(name);
+		arr.values = values;
+		return new Snapshot(replace(share(), arr), version);
+	}
+
+	/**
+	 * Returns a new version with one array item set. The array's items are copied.
+	 *
+	 * @param name Array name
+	 * @param index Index of the item
+	 * @param value New value
+	 * @param version Version number of the new snapshot
+	 * @return The new version
+	 * @throws IllegalArgumentException If there is no such array, it has no values, or its
+	 * items are kept in storage that cannot be copied
+	 */
+	Snapshot withArrayValue(String name, int index, int value, long version) {
+		Array old = symbols.getArray(name);
+		if (old == null || !old.hasValues()) {
+			throw new IllegalArgumentException("no values for array " + name);
+		}
+		if (old.values == null && !(old.storage instanceof SparseArrayStorage)) {
+			throw new IllegalArgumentException("items of array " + name + " cannot be copied");
+		}
+		Array arr = copy(old);
+		arr.set(index, value);
+		return new Snapshot(replace(share(), arr), version);
+	}
+
+	/**
+	 * Returns a new table with the same Variable and Array instances as this snapshot's.
+	 */
+	private SymbolTable share() {
+		return new SymbolTable(symbols.variables(), symbols.arrays());
+	}
+
+	/**
+	 * Returns a table with the variable in a slot replaced.
+	 */
+	private static SymbolTable replace(SymbolTable table, int slot, Variable var) {
+		ArrayList<Variable> vars = table.variables();
+		vars.set(slot, var);
+		return new SymbolTable(vars, table.arrays());
+	}
+
+	/**
+	 * Returns a table with the array of the same name replaced, or added.
+	 */
+	private static SymbolTable replace(SymbolTable table, Array arr) {
+		ArrayList<Array> arrays = table.arrays();
+		int slot = table.arraySlot(arr.name);
+		if (slot == -1) {
+			arrays.add(arr);
+		} else {
+			arrays.set(slot, arr);
+		}
+		return new SymbolTable(table.variables(), arrays);
+	}
+
+	private static Variable copy(Variable var) {
+		Variable v = new Variable(var.name);
+		v.value = var.value;
+		return v;
+	}
+
+	/**
+	 * Copies an array's items, except for storage other than an int[] or a sparse map,
+	 * which is shared.
+	 */
+	private static Array copy(Array arr) {
+		Array a = new Array(arr.name);
+		if (arr.values != null) {
+			a.values = arr.values.clone();
+		} else if (arr.storage instanceof SparseArrayStorage) {
+			a.storage = ((SparseArrayStorage)arr.storage).copy();
+		} else {
+			a.storage = arr.storage;
+		}
+		return a;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return "version " + version + ": " + symbols;
+	}
+}
@@ -0,0 +1,366 @@
+package app;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class writes the variables and arrays of a symbol table to a binary snapshot file,
+ * and loads them back by memory-mapping it. Loading reads only the symbol directory:
+ * dense arrays come back as read-only views of their blocks in the file (see
+ * MappedArrayStorage), so nothing is parsed or copied, and items are paged in by the
+ * operating system as they are used. This makes loading a large values file close to
+ * instant, once it has been converted (java app.Evaluator -snapshot values snapshot).
+ *
+ * The file is all little-endian:
+ * <pre>
+ * header, 32 bytes:  int magic (byte 0x89, "EXV"), int format version, int number of variables,
+ *                    int number of arrays, long directory size in bytes, long file size
+ * directory:         for each variable: short name length, name (UTF-8), int value
+ *                    for each array: short name length, name (UTF-8), byte kind,
+ *                    int length, int count, long offset of its block
+ * blocks:            one per array with values, starting at multiples of 8 bytes
+ * </pre>
+ * An array of kind DENSE has a block of length ints. An array of kind SPARSE has a block
+ * of count (index, value) int pairs, in increasing order of index, and is loaded into a
+ * SparseArrayStorage. An array of kind NONE had no values, and has no block.
+ *
+ * @author aravindm24
+ *
+ */
+public class SnapshotFile {
+
+	/**
+	 * Byte 0x89 then "EXV", in little-endian order; the first byte is not ASCII, so no
+	 * values file starts with it
+	 */
+	private static final int MAGIC = 0x56584589;
+	private static final int FORMAT = 1;
+	private static final int HEADER = 32;
+
+	/**
+	 * Array kinds
+	 */
+	private static final byte NONE = 0, DENSE = 1, SPARSE = 2;
+
+	private SnapshotFile() {
+	}
+
+	/**
+	 * Tells whether a file is a snapshot file, by its magic number.
+	 *
+	 * @param file The file
+	 * @return True if the file starts with the snapshot magic number
+	 * @throws IOException If the file cannot be read
+	 */
+	public static boolean isSnapshot(File file)
+	throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer head = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+			int n;
+			do {
+				n = channel.read(head);
+			} while (n >= 0 && head.hasRemaining());
+			return !head.hasRemaining() && head.getInt(0) == MAGIC;
+		}
+	}
+
+	/**
+	 * Writes every variable and array in a symbol table to a snapshot file, replacing
+	 * the file if it exists. The snapshot is written to a temporary file in the same
+	 * directory, and moved into place once complete, so a run that has the old file
+	 * mapped, or the symbol table itself, goes on reading it unchanged.
+	 *
+	 * @param symbols The symbol table
+	 * @param file Snapshot file to write
+	 * @throws IOException If the file cannot be written
+	 */
+	public static void write(SymbolTable symbols, File file)
+	throws IOException {
+		byte[][] varNames = new byte[symbols.variableCount()][];
+		byte[][] arrayNames = new byte[symbols.arrayCount()][];
+		long directory = 0;
+		for (int slot = 0; slot < varNames.length; slot++) {
+			varNames[slot] = name(symbols.variable(slot).name);
+			directory += 2 + varNames[slot].length + 4;
+		}
+		for (int slot = 0; slot < arrayNames.length; slot++) {
+			arrayNames[slot] = name(symbols.array(slot).name);
+			directory += 2 + arrayNames[slot].length + 1 + 4 + 4 + 8;
+		}
+
+		//lay out the blocks after the directory
+		byte[] kinds = new byte[arrayNames.length];
+		int[][] sparse = new int[arrayNames.length][];
+		long[] offsets = new long[arrayNames.length];
+		long end = align(HEADER + directory);
+		for (int slot = 0; slot < arrayNames.length; slot++) {
+			Array arr = symbols.array(slot);
+			if (!arr.hasValues()) {
+				kinds[slot] = NONE;
+				continue;
+			}
+			offsets[slot] = end;
+			if (arr.values == null && arr.storage instanceof SparseArrayStorage) {
+				kinds[slot] = SPARSE;
+				sparse[slot] = ((SparseArrayStorage)arr.storage).indexes();
+				end = align(end + 8L*sparse[slot].length);
+			} else {
+				kinds[slot] = DENSE;
+				end = align(end + 4L*arr.length());
+			}
+		}
+
+		File temp = File.createTempFile(file.getName() + ".", ".tmp", file.getAbsoluteFile().getParentFile());
+		try {
+			try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE)) {
+				Writer out = new Writer(channel);
+				out.putInt(MAGIC);
+				out.putInt(FORMAT);
+				out.putInt(varNames.length);
+				out.putInt(arrayNames.length);
+				out.putLong(directory);
+				out.putLong(end);
+				for (int slot = 0; slot < varNames.length; slot++) {
+					out.putName(varNames[slot]);
+					out.putInt(symbols.variable(slot).value);
+				}
+				for (int slot = 0; slot < arrayNames.length; slot++) {
+					Array arr = symbols.array(slot);
+					out.putName(arrayNames[slot]);
+					out.put(kinds[slot]);
+					out.putInt(arr.length());
+					out.putInt(kinds[slot] == SPARSE ? sparse[slot].length : arr.length());
+					out.putLong(offsets[slot]);
+				}
+				for (int slot = 0; slot < arrayNames.length; slot++) {
+					Array arr = symbols.array(slot);
+					if (kinds[slot] == NONE) {
+						continue;
+					}
+					out.padTo(offsets[slot]);
+					if (kinds[slot] == SPARSE) {
+						for (int index : sparse[slot]) {
+							out.putInt(index);
+							out.putInt(arr.get(index));
+						}
+					} else if (arr.values != null) {
+						for (int item : arr.values) {
+							out.putInt(item);
+						}
+					} else {
+						for (int i = 0; i < arr.length(); i++) {
+							out.putInt(arr.get(i));
+						}
+					}
+				}
+				out.padTo(end);
+				out.flush();
+			}
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			//only there if the snapshot was not completed
+			Files.deleteIfExists(temp.toPath());
+		}
+	}
+
+	private static byte[] name(String name) {
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length > Short.MAX_VALUE) {
+			throw new IllegalArgumentException("name too long: " + name.substring(0, 32) + "...");
+		}
+		return bytes;
+	}
+
+	private static long align(long offset) {
+		return (offset + 7) & ~7L;
+	}
+
+	/**
+	 * Loads values from a snapshot file for the variables and arrays in a symbol table.
+	 * Symbols that are not in the table are skipped.
+	 *
+	 * @param file Snapshot file
+	 * @param symbols The symbol table, previously populated by makeVariableLists
+	 * @return Number of variables and arrays that were given values
+	 * @throws IOException If the file cannot be mapped, or is not a valid snapshot file
+	 */
+	public static int load(File file, SymbolTable symbols)
+	throws IOException {
+		return load(file, symbols, false);
+	}
+
+	/**
+	 * Loads every variable and array in a snapshot file into a symbol table, adding the
+	 * symbols that are not in the table yet.
+	 *
+	 * @param file Snapshot file
+	 * @param symbols The symbol table to load into
+	 * @return Number of variables and arrays that were given values
+	 * @throws IOException If the file cannot be mapped, or is not a valid snapshot file
+	 */
+	public static int loadAll(File file, SymbolTable symbols)
+	throws IOException {
+		return load(file, symbols, true);
+	}
+
+	private static int load(File file, SymbolTable symbols, boolean addMissing)
+	throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < HEADER) {
+				throw new IOException(file + " is not a values snapshot");
+			}
+			MappedByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER);
+			head.order(ByteOrder.LITTLE_ENDIAN);
+			if (head.getInt(0) != MAGIC) {
+				throw new IOException(file + " is not a values snapshot");
+			}
+			if (head.getInt(4) != FORMAT) {
+				throw new IOException(file + ": unknown snapshot format " + head.getInt(4));
+			}
+			int numVars = head.getInt(8), numArrays = head.getInt(12);
+			long directory = head.getLong(16);
+			if (numVars < 0 || numArrays < 0 || directory < 0 || HEADER + directory > size
+					|| directory > Integer.MAX_VALUE || head.getLong(24) != size) {
+				throw new IOException(file + ": snapshot is truncated or corrupt");
+			}
+			ByteBuffer dir = channel.map(FileChannel.MapMode.READ_ONLY, HEADER, directory);
+			dir.order(ByteOrder.LITTLE_ENDIAN);
+			int loaded = 0;
+			try {
+				for (int i = 0; i < numVars; i++) {
+					String name = readName(dir);
+					int value = dir.getInt();
+					int slot = addMissing ? symbols.addVariable(name) : symbols.variableSlot(name);
+					if (slot != -1) {
+						symbols.variable(slot).value = value;
+						loaded++;
+					}
+				}
+				for (int i = 0; i < numArrays; i++) {
+					String name = readName(dir);
+					byte kind = dir.get();
+					int length = dir.getInt(), count = dir.getInt();
+					long offset = dir.getLong();
+					long bytes = kind == DENSE ? 4L*length : kind == SPARSE ? 8L*count : 0;
+					if (length < 0 || count < 0 || kind < NONE || kind > SPARSE
+							|| offset < 0 || offset + bytes > size) {
+						throw new IOException(file + ": bad directory entry for array " + name);
+					}
+					int slot = addMissing ? symbols.addArray(name) : symbols.arraySlot(name);
+					if (slot == -1) {
+						continue;
+					}
+					Array arr = symbols.array(slot);
+					arr.values = null;
+					arr.storage = null;
+					if (kind == DENSE) {
+						arr.storage = MappedArrayStorage.view(channel, offset, length);
+					} else if (kind == SPARSE) {
+						arr.storage = sparse(channel, offset, length, count);
+					}
+					loaded++;
+				}
+			} catch (RuntimeException e) {
+				throw new IOException(file + ": snapshot directory is corrupt", e);
+			}
+			return loaded;
+		}
+	}
+
+	private static String readName(ByteBuffer dir) {
+		byte[] bytes = new byte[dir.getShort()];
+		dir.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static SparseArrayStorage sparse(FileChannel channel, long offset, int length, int count)
+	throws IOException {
+		SparseArrayStorage storage = new SparseArrayStorage(length, count);
+		if (count > 0) {
+			IntBuffer pairs = channel.map(FileChannel.MapMode.READ_ONLY, offset, 8L*count)
+					.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+			for (int i = 0; i < count; i++) {
+				storage.set(pairs.get(2*i), pairs.get(2*i + 1));
+			}
+		}
+		return storage;
+	}
+
+	/**
+	 * Buffered little-endian output to a channel
+	 */
+	private static class Writer {
+		private final FileChannel channel;
+		private final ByteBuffer buf = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+		private long position;
+
+		Writer(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		void put(byte b)
+		throws IOException {
+			room(1);
+			buf.put(b);
+			position++;
+		}
+
+		void putInt(int n)
+		throws IOException {
+			room(4);
+			buf.putInt(n);
+			position += 4;
+		}
+
+		void putLong(long n)
+		throws IOException {
+			room(8);
+			buf.putLong(n);
+			position += 8;
+		}
+
+		void putName(byte[] name)
+		throws IOException {
+			room(2);
+			buf.putShort((short)name.length);
+			position += 2;
+			for (byte b : name) {
+				put(b);
+			}
+		}
+
+		void padTo(long offset)
+		throws IOException {
+			while (position < offset) {
+				put((byte)0);
+			}
+		}
+
+		private void room(int n)
+		throws IOException {
+			if (buf.remaining() < n) {
+				flush();
+			}
+		}
+
+		void flush()
+		throws IOException {
+			buf.flip();
+			while (buf.hasRemaining()) {
+				channel.write(buf);
+			}
+			buf.clear();
+		}
+	}
+}
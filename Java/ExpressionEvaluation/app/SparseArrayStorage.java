@@ -0,0 +1,199 @@
+package app;
+
+import java.util.Arrays;
+
+/**
+ * This class keeps the items of an array that is mostly zeros: only the items that
+ * were given values are stored, in an open addressed hash map from index to value.
+ * Items that are not in the map are zero. Each stored item takes about 16 bytes, so
+ * this is used instead of an int[] when at most 1 in MAX_FILL items are given.
+ *
+ * @author aravindm24
+ *
+ */
+public final class SparseArrayStorage implements ArrayStorage {
+
+	/**
+	 * Smallest array size for which sparse storage is used
+	 */
+	public static final int MIN_LENGTH = 1 << 12;
+
+	/**
+	 * An array is kept sparse if at most length/MAX_FILL of its items are given
+	 */
+	public static final int MAX_FILL = 8;
+
+	private final int length;
+
+	/**
+	 * Open addressed hash map keys, holding index+1 (0 marks an empty entry)
+	 */
+	private int[] keys;
+
+	/**
+	 * Value of the item at the same position in keys
+	 */
+	private int[] items;
+
+	/**
+	 * Number of items stored
+	 */
+	private int count;
+
+	/**
+	 * Initializes with all items zero.
+	 *
+	 * @param length Number of items
+	 * @param expected Number of items expected to be set, to size the map
+	 */
+	public SparseArrayStorage(int length, int expected) {
+		this.length = length;
+		int capacity = 16;
+		while (capacity < expected * 2) {
+			capacity *= 2;
+		}
+		keys = new int[capacity];
+		items = new int[capacity];
+	}
+
+	/**
+	 * Returns the largest number of given items for which an array of this size is
+	 * kept sparse.
+	 *
+	 * @param length Number of items in the array
+	 * @return Most given items, or -1 if the array is too small to be kept sparse
+	 */
+	public static int maxItems(int length) {
+		return length < MIN_LENGTH ? -1 : length / MAX_FILL;
+	}
+
+	/**
+	 * Returns a copy that can be changed without changing this storage.
+	 *
+	 * @return Copy of the storage
+	 */
+	public SparseArrayStorage copy() {
+		SparseArrayStorage c = new SparseArrayStorage(length, 0);
+		c.keys = keys.clone();
+		c.items = items.clone();
+		c.count = count;
+		return c;
+	}
+
+	/**
+	 * Returns the number of items stored, that is, of items that have been set.
+	 *
+	 * @return Number of items stored
+	 */
+	public int stored() {
+		return count;
+	}
+
+	/* (non-Javadoc)
+	 * @see app.ArrayStorage#length()
+	 */
+	public int length() {
+		return length;
+	}
+
+	/* (non-Javadoc)
+	 * @see app.ArrayStorage#get(int)
+	 */
+	public int get(int index) {
+		if (index < 0 || index >= length) {
+			throw new ArrayIndexOutOfBoundsException("Index " + index + " out of bounds for length " + length);
+		}
+		int mask = keys.length - 1;
+		for (int h = hash(index) & mask; keys[h] != 0; h = (h + 1) & mask) {
+			if (keys[h] == index + 1) {
+				return items[h];
+			}
+		}
+		return 0;
+	}
+
+	/* (non-Javadoc)
+	 * @see app.ArrayStorage#set(int, int)
+	 */
+	public void set(int index, int value) {
+		if (index < 0 || index >= length) {
+			throw new ArrayIndexOutOfBoundsException("Index " + index + " out of bounds for length " + length);
+		}
+		int mask = keys.length - 1;
+		int h = hash(index) & mask;
+		for (; keys[h] != 0; h = (h + 1) & mask) {
+			if (keys[h] == index + 1) {
+				items[h] = value;
+				return;
+			}
+		}
+		if (value == 0) {
+			return; // items not stored are zero already
+		}
+		keys[h] = index + 1;
+		items[h] = value;
+		if (++count * 2 > keys.length) {
+			grow();
+		}
+	}
+
+	private void grow() {
+		int[] oldKeys = keys, oldItems = items;
+		keys = new int[oldKeys.length * 2];
+		items = new int[oldKeys.length * 2];
+		int mask = keys.length - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != 0) {
+				int h = hash(oldKeys[i] - 1) & mask;
+				while (keys[h] != 0) {
+					h = (h + 1) & mask;
+				}
+				keys[h] = oldKeys[i];
+				items[h] = oldItems[i];
+			}
+		}
+	}
+
+	/**
+	 * Spreads the bits of an index, since indexes given together are often close together
+	 */
+	private static int hash(int index) {
+		int h = index * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Returns the indexes of the stored items, in increasing order.
+	 *
+	 * @return Indexes of stored items
+	 */
+	int[] indexes() {
+		int[] given = new int[count];
+		int n = 0;
+		for (int key : keys) {
+			if (key != 0) {
+				given[n++] = key - 1;
+			}
+		}
+		Arrays.sort(given);
+		return given;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		int[] given = indexes();
+		int n = given.length;
+		StringBuilder sb = new StringBuilder();
+		sb.append(count).append(" of ").append(length).append(" items {");
+		for (int i = 0; i < n; i++) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			sb.append('(').append(given[i]).append(',').append(get(given[i])).append(')');
+		}
+		sb.append('}');
+		return sb.toString();
+	}
+}
@@ -0,0 +1,326 @@
+package app;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * This class holds the simple variables and arrays of one or more expressions, each
+ * in a numbered slot. Slots are handed out in the order symbols are added and never
+ * change, and names are found through hash indexes, so lookups take constant time
+ * no matter how many symbols there are.
+ *
+ * @author aravindm24
+ *
+ */
+public class SymbolTable {
+
+	/**
+	 * Variables, indexed by slot
+	 */
+	private Variable[] vars;
+
+	/**
+	 * Number of variable slots in use
+	 */
+	private int varCount;
+
+	/**
+	 * Arrays, indexed by slot
+	 */
+	private Array[] arrays;
+
+	/**
+	 * Number of array slots in use
+	 */
+	private int arrayCount;
+
+	/**
+	 * Open addressed hash index of variable names, holding slot+1 (0 marks an empty entry)
+	 */
+	private int[] varIndex;
+
+	/**
+	 * Open addressed hash index of array names, holding slot+1 (0 marks an empty entry)
+	 */
+	private int[] arrayIndex;
+
+	/**
+	 * Initializes to an empty table.
+	 */
+	public SymbolTable() {
+		vars = new Variable[8];
+		arrays = new Array[8];
+		varIndex = new int[16];
+		arrayIndex = new int[16];
+	}
+
+	/**
+	 * Initializes with the symbols in the given lists, in list order. The table
+	 * refers to the same Variable and Array instances as the lists, so values loaded
+	 * through the table are seen through the lists as well.
+	 *
+	 * @param vars The variables array list
+	 * @param arrays The arrays array list
+	 */
+	public SymbolTable(ArrayList<Variable> vars, ArrayList<Array> arrays) {
+		this();
+		for (int i = 0; i < vars.size(); i++) {
+			add(vars.get(i));
+		}
+		for (int i = 0; i < arrays.size(); i++) {
+			add(arrays.get(i));
+		}
+	}
+
+	/**
+	 * Returns the number of variable slots.
+	 *
+	 * @return Number of variables
+	 */
+	public int variableCount() {
+		return varCount;
+	}
+
+	/**
+	 * Returns the number of array slots.
+	 *
+	 * @return Number of arrays
+	 */
+	public int arrayCount() {
+		return arrayCount;
+	}
+
+	/**
+	 * Returns the variable in a slot.
+	 *
+	 * @param slot Variable slot, 0 to variableCount()-1
+	 * @return Variable in the slot
+	 */
+	public Variable variable(int slot) {
+		return vars[slot];
+	}
+
+	/**
+	 * Returns the array in a slot.
+	 *
+	 * @param slot Array slot, 0 to arrayCount()-1
+	 * @return Array in the slot
+	 */
+	public Array array(int slot) {
+		return arrays[slot];
+	}
+
+	/**
+	 * Finds the slot of a variable.
+	 *
+	 * @param name Variable name
+	 * @return Slot of the variable, or -1 if there is no such variable
+	 */
+	public int variableSlot(String name) {
+		int mask = varIndex.length - 1;
+		for (int h = hash(name) & mask; varIndex[h] != 0; h = (h + 1) & mask) {
+			if (vars[varIndex[h]-1].name.equals(name)) {
+				return varIndex[h] - 1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds the slot of an array.
+	 *
+	 * @param name Array name
+	 * @return Slot of the array, or -1 if there is no such array
+	 */
+	public int arraySlot(String name) {
+		int mask = arrayIndex.length - 1;
+		for (int h = hash(name) & mask; arrayIndex[h] != 0; h = (h + 1) & mask) {
+			if (arrays[arrayIndex[h]-1].name.equals(name)) {
+				return arrayIndex[h] - 1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds the slot of a variable whose name is a region of some text, such as
+	 * a token of an expression, without creating a string for the name.
+	 *
+	 * @param text Text containing the name
+	 * @param start Offset of the first character of the name
+	 * @param end Offset just past the last character of the name
+	 * @return Slot of the variable, or -1 if there is no such variable
+	 */
+	public int variableSlot(CharSequence text, int start, int end) {
+		int mask = varIndex.length - 1;
+		for (int h = hash(text, start, end) & mask; varIndex[h] != 0; h = (h + 1) & mask) {
+			if (matches(vars[varIndex[h]-1].name, text, start, end)) {
+				return varIndex[h] - 1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds the slot of an array whose name is a region of some text, such as
+	 * a token of an expression, without creating a string for the name.
+	 *
+	 * @param text Text containing the name
+	 * @param start Offset of the first character of the name
+	 * @param end Offset just past the last character of the name
+	 * @return Slot of the array, or -1 if there is no such array
+	 */
+	public int arraySlot(CharSequence text, int start, int end) {
+		int mask = arrayIndex.length - 1;
+		for (int h = hash(text, start, end) & mask; arrayIndex[h] != 0; h = (h + 1) & mask) {
+			if (matches(arrays[arrayIndex[h]-1].name, text, start, end)) {
+				return arrayIndex[h] - 1;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean matches(String name, CharSequence text, int start, int end) {
+		if (name.length() != end - start) {
+			return false;
+		}
+		for (int i = start; i < end; i++) {
+			if (name.charAt(i - start) != text.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Finds a variable by name.
+	 *
+	 * @param name Variable name
+	 * @return The variable, or null if there is no such variable
+	 */
+	public Variable getVariable(String name) {
+		int slot = variableSlot(name);
+		return slot == -1 ? null : vars[slot];
+	}
+
+	/**
+	 * Finds an array by name.
+	 *
+	 * @param name Array name
+	 * @return The array, or null if there is no such array
+	 */
+	public Array getArray(String name) {
+		int slot = arraySlot(name);
+		return slot == -1 ? null : arrays[slot];
+	}
+
+	/**
+	 * Adds a variable with zero value, unless there already is one with this name.
+	 *
+	 * @param name Variable name
+	 * @return Slot of the variable
+	 */
+	public int addVariable(String name) {
+		int slot = variableSlot(name);
+		return slot != -1 ? slot : add(new Variable(name));
+	}
+
+	/**
+	 * Adds an array with null values, unless there already is one with this name.
+	 *
+	 * @param name Array name
+	 * @return Slot of the array
+	 */
+	public int addArray(String name) {
+		int slot = arraySlot(name);
+		return slot != -1 ? slot : add(new Array(name));
+	}
+
+	private int add(Variable var) {
+		if (varCount == vars.length) {
+			vars = Arrays.copyOf(vars, varCount*2);
+		}
+		vars[varCount++] = var;
+		if (varCount*2 > varIndex.length) {
+			varIndex = new int[varIndex.length*2];
+			for (int slot = 0; slot < varCount; slot++) {
+				insert(varIndex, vars[slot].name, slot);
+			}
+		} else {
+			insert(varIndex, var.name, varCount-1);
+		}
+		return varCount - 1;
+	}
+
+	private int add(Array arr) {
+		if (arrayCount == arrays.length) {
+			arrays = Arrays.copyOf(arrays, arrayCount*2);
+		}
+		arrays[arrayCount++] = arr;
+		if (arrayCount*2 > arrayIndex.length) {
+			arrayIndex = new int[arrayIndex.length*2];
+			for (int slot = 0; slot < arrayCount; slot++) {
+				insert(arrayIndex, arrays[slot].name, slot);
+			}
+		} else {
+			insert(arrayIndex, arr.name, arrayCount-1);
+		}
+		return arrayCount - 1;
+	}
+
+	private static void insert(int[] index, String name, int slot) {
+		int mask = index.length - 1;
+		int h = hash(name) & mask;
+		while (index[h] != 0) {
+			h = (h + 1) & mask;
+		}
+		index[h] = slot + 1;
+	}
+
+	private static int hash(String name) {
+		int h = name.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	private static int hash(CharSequence text, int start, int end) {
+		// same as hashCode of the substring
+		int h = 0;
+		for (int i = start; i < end; i++) {
+			h = 31*h + text.charAt(i);
+		}
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Returns the variables in slot order.
+	 *
+	 * @return New list of the variables
+	 */
+	public ArrayList<Variable> variables() {
+		ArrayList<Variable> list = new ArrayList<Variable>(varCount);
+		for (int slot = 0; slot < varCount; slot++) {
+			list.add(vars[slot]);
+		}
+		return list;
+	}
+
+	/**
+	 * Returns the arrays in slot order.
+	 *
+	 * @return New list of the arrays
+	 */
+	public ArrayList<Array> arrays() {
+		ArrayList<Array> list = new ArrayList<Array>(arrayCount);
+		for (int slot = 0; slot < arrayCount; slot++) {
+			list.add(arrays[slot]);
+		}
+		return list;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return variables() + " " + arrays();
+	}
+}
@@ -0,0 +1,255 @@
+package app;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class keeps the most recently used values files loaded, so that the many expressions
+ * that name the same file share one symbol table instead of each parsing the whole file
+ * again. Files are looked up by canonical path, and an entry is only used while the file
+ * has the same modification time and size as when it was loaded; a file that has changed
+ * is loaded again. At most a fixed number of files are kept, and the least recently used
+ * one is dropped to make room for another.
+ *
+ * A file is loaded by the first thread that asks for it, outside the cache lock. Other
+ * threads that ask for it in the meantime wait for that load rather than starting their
+ * own. A load that fails is not kept, so the next request tries again.
+ *
+ * The symbol tables handed out are shared, and must only be read (see bind).
+ *
+ * @author aravindm24
+ *
+ */
+public class ValuesCache {
+
+	/**
+	 * Default number of files kept, from the system property expression.cache.size
+	 */
+	public static final int DEFAULT_CAPACITY = Integer.getInteger("expression.cache.size", 16);
+
+	private final File mapDirectory;
+
+	/**
+	 * Loaded files by canonical path, least recently used first
+	 */
+	private final LinkedHashMap<String,Entry> entries;
+
+	private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong(),
+			reloads = new AtomicLong(), evictions = new AtomicLong(), loadNanos = new AtomicLong();
+
+	/**
+	 * A loaded (or loading) file, with the modification time and size it had when the
+	 * load started
+	 */
+	private static class Entry {
+		final long modified, size;
+		final FutureTask<SymbolTable> table;
+
+		Entry(long modified, long size, FutureTask<SymbolTable> table) {
+			this.modified = modified;
+			this.size = size;
+			this.table = table;
+		}
+	}
+
+	/**
+	 * Initializes with the default capacity, keeping all arrays on the heap.
+	 */
+	public ValuesCache() {
+		this(DEFAULT_CAPACITY, null);
+	}
+
+	/**
+	 * Initializes an empty cache.
+	 *
+	 * @param capacity Most files kept loaded at once
+	 * @param mapDirectory Directory for memory-mapped array files (see ValuesLoader), or null
+	 * to keep all arrays on the heap
+	 */
+	public ValuesCache(int capacity, File mapDirectory) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity " + capacity + " is less than 1");
+		}
+		this.mapDirectory = mapDirectory;
+		entries = new LinkedHashMap<String,Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<String,Entry> eldest) {
+				if (size() > capacity) {
+					evictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Returns every variable and array in a values file (or snapshot file), loading the
+	 * file unless it is in the cache and has not changed since it was loaded.
+	 *
+	 * @param file Values file
+	 * @return Symbol table with all the file's values; shared, and must not be changed
+	 * @throws IOException If the file cannot be read, or is not in the values file format
+	 */
+	public SymbolTable get(File file)
+	throws IOException {
+		File canonical = file.getCanonicalFile();
+		String path = canonical.getPath();
+		long modified = canonical.lastModified(), size = canonical.length();
+
+		FutureTask<SymbolTable> task;
+		boolean load = false;
+		synchronized (entries) {
+			Entry entry = entries.get(path);
+			if (entry != null && entry.modified == modified && entry.size == size) {
+				hits.incrementAndGet();
+				task = entry.table;
+			} else {
+				misses.incrementAndGet();
+				if (entry != null) {
+					reloads.incrementAndGet();
+				}
+				task = new FutureTask<>(() -> load(canonical));
+				entries.put(path, new Entry(modified, size, task));
+				load = true;
+			}
+		}
+		if (load) {
+			task.run();
+		}
+
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while waiting for " + file + " to load");
+		} catch (ExecutionException e) {
+			synchronized (entries) {
+				Entry entry = entries.get(path);
+				if (entry != null && entry.table == task) {
+					entries.remove(path);
+				}
+			}
+			if (e.getCause() instanceof IOException) {
+				throw (IOException)e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	private SymbolTable load(File file)
+	throws IOException {
+		long t = System.nanoTime();
+		SymbolTable table = new SymbolTable();
+		if (SnapshotFile.isSnapshot(file)) {
+			SnapshotFile.loadAll(file, table);
+		} else {
+			ValuesLoader.loadAll(file, table, mapDirectory);
+		}
+		loadNanos.addAndGet(System.nanoTime() - t);
+		return table;
+	}
+
+	/**
+	 * Gives the variables and arrays in a symbol table the values they have in a shared
+	 * table from the cache. Arrays share their items with the cached table, which is only
+	 * read. Symbols that are not in the cached table are left as they are.
+	 *
+	 * @param symbols The symbol table, previously populated by makeVariableLists
+	 * @param values Symbol table returned by get
+	 */
+	public static void bind(SymbolTable symbols, SymbolTable values) {
+		for (int slot = 0; slot < symbols.variableCount(); slot++) {
+			Variable var = values.getVariable(symbols.variable(slot).name);
+			if (var != null) {
+				symbols.variable(slot).value = var.value;
+			}
+		}
+		for (int slot = 0; slot < symbols.arrayCount(); slot++) {
+			Array arr = values.getArray(symbols.array(slot).name);
+			if (arr != null) {
+				symbols.array(slot).values = arr.values;
+				symbols.array(slot).storage = arr.storage;
+			}
+		}
+	}
+
+	/**
+	 * Drops all files from the cache. Counters are not reset.
+	 */
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	/**
+	 * Returns the number of files in the cache, including those still loading.
+	 *
+	 * @return Number of files
+	 */
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	/**
+	 * Returns the number of requests for a file that was in the cache and unchanged.
+	 *
+	 * @return Number of hits
+	 */
+	public long hits() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of requests that loaded a file, including reloads.
+	 *
+	 * @return Number of misses
+	 */
+	public long misses() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns the number of misses for a file that was in the cache but had changed.
+	 *
+	 * @return Number of reloads
+	 */
+	public long reloads() {
+		return reloads.get();
+	}
+
+	/**
+	 * Returns the number of files dropped to make room for others.
+	 *
+	 * @return Number of evictions
+	 */
+	public long evictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * Returns the total time spent loading files, summed over threads.
+	 *
+	 * @return Loading time in nanoseconds
+	 */
+	public long loadNanos() {
+		return loadNanos.get();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return size() + " values files cached, " + hits() + " hits, " + misses() + " misses ("
+				+ reloads() + " reloads), " + evictions() + " evictions";
+	}
+}
@@ -0,0 +1,481 @@
+package app;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * This class loads a variable values file, in the same format as read by
+ * Expression.loadVariableValues, for large files. Input is read in big blocks
+ * from a byte channel and parsed a byte at a time: names are matched against
+ * the symbol table without creating strings, and array items are parsed and
+ * stored directly into the array's int values, or into a memory-mapped file
+ * for large arrays when a map directory is given. Large arrays with few items
+ * given are kept in a SparseArrayStorage instead.
+ *
+ * Each line is either a scalar, "name value", or an array, "name size" followed
+ * by (index,value) pairs.
+ *
+ * @author aravindm24
+ *
+ */
+public class ValuesLoader {
+
+	/**
+	 * Size of the read buffer
+	 */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * Smallest declared array size that is kept in a memory-mapped file, when loading
+	 * with a map directory (system property expression.map.threshold)
+	 */
+	public static final int MAP_THRESHOLD = Integer.getInteger("expression.map.threshold", 1 << 20);
+
+	/**
+	 * This class holds the statistics of one load.
+	 */
+	public static class Stats {
+
+		/**
+		 * Number of bytes read
+		 */
+		public final long bytes;
+
+		/**
+		 * Number of non-empty lines read
+		 */
+		public final int lines;
+
+		/**
+		 * Number of variables and arrays that were given values
+		 */
+		public final int symbols;
+
+		/**
+		 * Time taken, in nanoseconds
+		 */
+		public final long nanos;
+
+		Stats(long bytes, int lines, int symbols, long nanos) {
+			this.bytes = bytes;
+			this.lines = lines;
+			this.symbols = symbols;
+			this.nanos = nanos;
+		}
+
+		/**
+		 * Returns the load throughput.
+		 *
+		 * @return Megabytes (of 2^20 bytes) read per second
+		 */
+		public double megabytesPerSecond() {
+			return nanos == 0 ? 0 : bytes / (1024.0*1024.0) / (nanos / 1e9);
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		public String toString() {
+			return String.format("%d bytes, %d lines, %d symbols in %.3f ms (%.1f MB/s)",
+					bytes, lines, symbols, nanos / 1e6, megabytesPerSecond());
+		}
+	}
+
+	private final ReadableByteChannel in;
+
+	/**
+	 * Whether symbols that are not in the table are added to it
+	 */
+	private final boolean addMissing;
+
+	/**
+	 * Values file being loaded, and directory for mapped array files, or null for none
+	 */
+	private final File source, mapDirectory;
+	private final byte[] buf = new byte[BUFFER_SIZE];
+	private final ByteBuffer wrapped = ByteBuffer.wrap(buf);
+	private int pos, limit;
+	private long bytes;
+
+	/**
+	 * Number of the line being read, counting blank lines, for error messages; and the
+	 * number of newlines read so far, and of non-empty lines
+	 */
+	private int line, newlines, lines;
+
+	/**
+	 * Name of the symbol on the current line, reused for every line
+	 */
+	private final StringBuilder name = new StringBuilder();
+
+	/**
+	 * (index,value) pairs of the current line while its array may still be sparse
+	 */
+	private int[] pairIndexes = new int[64], pairItems = new int[64];
+
+	private ValuesLoader(ReadableByteChannel in, boolean addMissing, File source, File mapDirectory) {
+		this.in = in;
+		this.addMissing = addMissing;
+		this.source = source;
+		this.mapDirectory = mapDirectory;
+	}
+
+	/**
+	 * Loads values from a file for the variables and arrays in a symbol table.
+	 * Lines for symbols that are not in the table are skipped.
+	 *
+	 * @param file Values file
+	 * @param symbols The symbol table, previously populated by makeVariableLists
+	 * @return Statistics of the load
+	 * @throws IOException If the file cannot be read, or is not in the values file format
+	 */
+	public static Stats load(File file, SymbolTable symbols)
+	throws IOException {
+		return load(file, symbols, null);
+	}
+
+	/**
+	 * Loads values from a file for the variables and arrays in a symbol table, keeping
+	 * arrays of MAP_THRESHOLD or more items in memory-mapped files instead of on the heap.
+	 * The mapped file for an array is named after the values file, its path and the array,
+	 * and is used as is, without parsing its line again, if it is still current for the
+	 * values file. A reused file is mapped copy-on-write, so setting its items does not
+	 * change the file.
+	 * Lines for symbols that are not in the table are skipped.
+	 *
+	 * @param file Values file
+	 * @param symbols The symbol table, previously populated by makeVariableLists
+	 * @param mapDirectory Directory for mapped array files, or null to keep all arrays on the heap
+	 * @return Statistics of the load
+	 * @throws IOException If the file cannot be read, or is not in the values file format,
+	 * or a mapped file cannot be written
+	 */
+	public static Stats load(File file, SymbolTable symbols, File mapDirectory)
+	throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			return new ValuesLoader(channel, false, file, mapDirectory).run(symbols);
+		}
+	}
+
+	/**
+	 * Loads values from a channel for the variables and arrays in a symbol table.
+	 * Lines for symbols that are not in the table are skipped. The channel is read
+	 * to its end, but not closed.
+	 *
+	 * @param in Channel for values input
+	 * @param symbols The symbol table, previously populated by makeVariableLists
+	 * @return Statistics of the load
+	 * @throws IOException If the input cannot be read, or is not in the values file format
+	 */
+	public static Stats load(ReadableByteChannel in, SymbolTable symbols)
+	throws IOException {
+		return new ValuesLoader(in, false, null, null).run(symbols);
+	}
+
+	/**
+	 * Loads every variable and array in a values file into a symbol table, adding
+	 * the symbols that are not in the table yet.
+	 *
+	 * @param file Values file
+	 * @param symbols The symbol table to load into
+	 * @return Statistics of the load
+	 * @throws IOException If the file cannot be read, or is not in the values file format
+	 */
+	public static Stats loadAll(File file, SymbolTable symbols)
+	throws IOException {
+		return loadAll(file, symbols, null);
+	}
+
+	/**
+	 * Loads every variable and array in a values file into a symbol table, adding
+	 * the symbols that are not in the table yet, and keeping large arrays in
+	 * memory-mapped files as described for load.
+	 *
+	 * @param file Values file
+	 * @param symbols The symbol table to load into
+	 * @param mapDirectory Directory for mapped array files, or null to keep all arrays on the heap
+	 * @return Statistics of the load
+	 * @throws IOException If the file cannot be read, or is not in the values file format,
+	 * or a mapped file cannot be written
+	 */
+	public static Stats loadAll(File file, SymbolTable symbols, File mapDirectory)
+	throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			return new ValuesLoader(channel, true, file, mapDirectory).run(symbols);
+		}
+	}
+
+	private Stats run(SymbolTable symbols)
+	throws IOException {
+		long start = System.nanoTime();
+		Metrics.Probe probe = Metrics.ENABLED ? Metrics.start(Metrics.LOAD_VARIABLE_VALUES) : null;
+		int loaded = 0;
+		int c;
+
+		while ((c = skipBlanks()) != -1) {
+			if (c == '\n') {
+				pos++;
+				newlines++;
+				continue;
+			}
+			line = newlines + 1;
+			lines++;
+			name.setLength(0);
+			while (c != -1 && c != '\n' && !isBlank(c)) {
+				name.append((char)c);
+				pos++;
+				c = peek();
+			}
+			int num = readInt();
+			c = skipBlanks();
+			if (Metrics.ENABLED) {
+				probe.phase(Metrics.TOKENIZE);
+				probe.lookup();
+			}
+			if (c == -1 || c == '\n') { // scalar symbol
+				int slot = symbols.variableSlot(name, 0, name.length());
+				if (slot == -1 && addMissing) {
+					slot = symbols.addVariable(name.toString());
+				}
+				if (slot != -1) {
+					symbols.variable(slot).value = num;
+					loaded++;
+				}
+				if (Metrics.ENABLED) {
+					probe.phase(Metrics.LOOKUP);
+				}
+				continue;
+			}
+			// array symbol, following are (index,val) pairs
+			if (num < 0) {
+				throw new IOException("line " + line + ": negative array size " + num + " for " + name);
+			}
+			int slot = symbols.arraySlot(name, 0, name.length());
+			if (slot == -1 && addMissing) {
+				slot = symbols.addArray(name.toString());
+			}
+			if (Metrics.ENABLED) {
+				probe.phase(Metrics.LOOKUP);
+			}
+			if (slot == -1) {
+				skipLine();
+				continue;
+			}
+			Array arr = symbols.array(slot);
+			boolean mappable = mapDirectory != null && num >= MAP_THRESHOLD;
+			if (mappable) {
+				MappedArrayStorage current = current(arr.name, num);
+				if (current != null) {
+					skipLine();
+					arr.storage = current;
+					arr.values = null;
+					loaded++;
+					continue;
+				}
+			}
+			readItems(arr, num, mappable);
+			loaded++;
+			if (Metrics.ENABLED) {
+				probe.phase(Metrics.ARRAY_ACCESS);
+			}
+		}
+		if (Metrics.ENABLED) {
+			probe.end(source == null ? "channel" : source.getPath());
+		}
+		return new Stats(bytes, lines, loaded, System.nanoTime() - start);
+	}
+
+	/**
+	 * Reads the (index,value) pairs on the rest of the current line into an array.
+	 * Items are held as pairs for as long as the array may still be kept sparse; once
+	 * there are too many, they are moved to an int[], or to a mapped file if the array
+	 * is mappable, and the remaining items are stored there directly.
+	 */
+	private void readItems(Array arr, int num, boolean mappable)
+	throws IOException {
+		int most = SparseArrayStorage.maxItems(num);
+		int count = 0;
+		int[] values = null;
+		MappedArrayStorage mapped = null;
+		int c;
+		try {
+			while ((c = skipSeparators()) != -1 && c != '\n') {
+				int index = readIndex(num);
+				int val = readInt();
+				if (values != null) {
+					values[index] = val;
+				} else if (mapped != null) {
+					mapped.set(index, val);
+				} else if (count < most) {
+					if (count == pairIndexes.length) {
+						pairIndexes = Arrays.copyOf(pairIndexes, count*2);
+						pairItems = Arrays.copyOf(pairItems, count*2);
+					}
+					pairIndexes[count] = index;
+					pairItems[count++] = val;
+				} else if (mappable) {
+					mapped = MappedArrayStorage.create(mapFile(arr.name), num);
+					for (int i = 0; i < count; i++) {
+						mapped.set(pairIndexes[i], pairItems[i]);
+					}
+					mapped.set(index, val);
+				} else {
+					values = new int[num];
+					for (int i = 0; i < count; i++) {
+						values[pairIndexes[i]] = pairItems[i];
+					}
+					values[index] = val;
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			//the mapped file is only put in place once complete
+			if (mapped != null) {
+				mapped.discard();
+			}
+			throw e;
+		}
+		if (values != null) {
+			arr.values = values;
+			arr.storage = null;
+		} else if (mapped != null) {
+			arr.values = null;
+			arr.storage = mapped.complete(source);
+		} else {
+			arr.setValues(num, pairIndexes, pairItems, count);
+		}
+	}
+
+	/**
+	 * Returns the mapped file of an array if it is current for the values file, or null.
+	 */
+	private MappedArrayStorage current(String array, int num) {
+		try {
+			File file = mapFile(array);
+			if (!file.exists()) {
+				return null;
+			}
+			MappedArrayStorage storage = MappedArrayStorage.open(file);
+			return storage.length() == num && storage.isCurrent(source) ? storage : null;
+		} catch (IOException e) {
+			return null; // not a usable mapped file, it is written again
+		}
+	}
+
+	/**
+	 * Returns the mapped file of an array. Its name has a hash of the values file's full
+	 * path, so values files of the same name in different directories do not share it.
+	 */
+	private File mapFile(String array)
+	throws IOException {
+		String path = source.getCanonicalPath();
+		return new File(mapDirectory, String.format("%s.%08x.%s.ints", source.getName(), path.hashCode(), array));
+	}
+
+	/**
+	 * Parses an array index and the separators after it, checking it against the array size.
+	 */
+	private int readIndex(int num)
+	throws IOException {
+		int index = readInt();
+		if (index < 0 || index >= num) {
+			throw new IOException("line " + line + ": index " + index
+					+ " out of bounds for " + name + "[" + num + "]");
+		}
+		skipSeparators();
+		return index;
+	}
+
+	/**
+	 * Parses an optionally signed decimal integer at the current position.
+	 */
+	private int readInt()
+	throws IOException {
+		int c = skipBlanks();
+		boolean negative = c == '-';
+		if (negative) {
+			pos++;
+			c = peek();
+		}
+		if (c < '0' || c > '9') {
+			throw new IOException("line " + line + ": expected a number after " + name);
+		}
+		long n = 0;
+		do {
+			n = n*10 + (c - '0');
+			if (n > Integer.MAX_VALUE + 1L) {
+				throw new IOException("line " + line + ": number too large after " + name);
+			}
+			pos++;
+			c = peek();
+		} while (c >= '0' && c <= '9');
+		n = negative ? -n : n;
+		if (n > Integer.MAX_VALUE) {
+			throw new IOException("line " + line + ": number too large after " + name);
+		}
+		return (int)n;
+	}
+
+	private static boolean isBlank(int c) {
+		return c == ' ' || c == '\t' || c == '\r';
+	}
+
+	/**
+	 * Skips spaces and tabs, and returns the next byte without consuming it.
+	 */
+	private int skipBlanks()
+	throws IOException {
+		int c;
+		while ((c = peek()) != -1 && isBlank(c)) {
+			pos++;
+		}
+		return c;
+	}
+
+	/**
+	 * Skips blanks, parentheses and commas, and returns the next byte without consuming it.
+	 */
+	private int skipSeparators()
+	throws IOException {
+		int c;
+		while ((c = peek()) != -1 && (isBlank(c) || c == '(' || c == ',' || c == ')')) {
+			pos++;
+		}
+		return c;
+	}
+
+	private void skipLine()
+	throws IOException {
+		int c;
+		while ((c = peek()) != -1 && c != '\n') {
+			pos++;
+		}
+	}
+
+	/**
+	 * Returns the next byte without consuming it, reading another block if needed.
+	 *
+	 * @return Next byte, or -1 at end of input
+	 */
+	private int peek()
+	throws IOException {
+		if (pos == limit) {
+			wrapped.clear();
+			int n;
+			do {
+				n = in.read(wrapped);
+			} while (n == 0);
+			if (n < 0) {
+				return -1;
+			}
+			pos = 0;
+			limit = n;
+			bytes += n;
+		}
+		return buf[pos] & 0xff;
+	}
+}
@@ -0,0 +1,113 @@
+package bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import app.CompiledExpression;
+import app.Expression;
+import app.SymbolTable;
+import app.ValuesLoader;
+
+/**
+ * Benchmarks for the expression engine, over generated expressions of different
+ * length, nesting depth, subscript density and number of symbols.
+ *
+ * @author aravindm24
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExpressionBenchmark {
+
+	/**
+	 * Number of operands in the expression
+	 */
+	@Param({"16", "256"})
+	public int operands;
+
+	/**
+	 * Depth of parenthesis nesting
+	 */
+	@Param({"0", "8"})
+	public int depth;
+
+	/**
+	 * Fraction of operands that are array items
+	 */
+	@Param({"0", "0.5"})
+	public double subscripts;
+
+	/**
+	 * Number of variables, and of arrays, in the values file
+	 */
+	@Param({"8", "1024"})
+	public int symbols;
+
+	private String expr;
+	private byte[] values;
+	private SymbolTable table;
+	private CompiledExpression compiled;
+
+	@Setup
+	public void setup() throws IOException {
+		expr = Inputs.expression(operands, depth, subscripts, symbols, 42);
+		values = Inputs.values(symbols, 42).getBytes(StandardCharsets.US_ASCII);
+		table = new SymbolTable();
+		Expression.makeVariableLists(expr, table);
+		ValuesLoader.load(Channels.newChannel(new ByteArrayInputStream(values)), table);
+		compiled = Expression.compile(expr);
+	}
+
+	@Benchmark
+	public SymbolTable makeVariableLists() {
+		SymbolTable symbols = new SymbolTable();
+		Expression.makeVariableLists(expr, symbols);
+		return symbols;
+	}
+
+	@Benchmark
+	public SymbolTable loadVariableValues() throws IOException {
+		Expression.loadVariableValues(new Scanner(new ByteArrayInputStream(values), "US-ASCII"), table);
+		return table;
+	}
+
+	@Benchmark
+	public ValuesLoader.Stats loadVariableValuesChannel() throws IOException {
+		return ValuesLoader.load(Channels.newChannel(new ByteArrayInputStream(values)), table);
+	}
+
+	@Benchmark
+	public float evaluate() {
+		return Expression.evaluate(expr, table);
+	}
+
+	@Benchmark
+	public CompiledExpression compile() {
+		return Expression.compile(expr);
+	}
+
+	@Benchmark
+	public float evaluateCompiled() {
+		return compiled.evaluate(table);
+	}
+}
@@ -0,0 +1,125 @@
+package bench;
+
+import java.util.Random;
+
+/**
+ * This class generates benchmark expressions and values files. The same parameters
+ * and seed always give the same text, so results of different runs can be compared.
+ *
+ * Simple variables are named x followed by letters, and arrays y followed by letters.
+ * Every variable has a value from 1 to ARRAY_LENGTH-1 and every array item is non-zero,
+ * so any variable can be used as a subscript and no division is by zero.
+ *
+ * @author aravindm24
+ *
+ */
+public class Inputs {
+
+	/**
+	 * Length of every generated array
+	 */
+	public static final int ARRAY_LENGTH = 64;
+
+	private static final String OPERATORS = "+-*/";
+
+	/**
+	 * Returns the name of a simple variable.
+	 *
+	 * @param k Variable number
+	 * @return Variable name
+	 */
+	public static String variable(int k) {
+		return "x" + letters(k);
+	}
+
+	/**
+	 * Returns the name of an array.
+	 *
+	 * @param k Array number
+	 * @return Array name
+	 */
+	public static String array(int k) {
+		return "y" + letters(k);
+	}
+
+	private static String letters(int k) {
+		StringBuilder sb = new StringBuilder();
+		do {
+			sb.append((char)('a' + k % 26));
+			k /= 26;
+		} while (k > 0);
+		return sb.toString();
+	}
+
+	/**
+	 * Generates an expression.
+	 *
+	 * @param operands Number of operands
+	 * @param depth Depth of parenthesis nesting
+	 * @param subscripts Fraction of operands that are array items
+	 * @param symbols Number of variables, and of arrays, that operands are drawn from
+	 * @param seed Random seed
+	 * @return The expression
+	 */
+	public static String expression(int operands, int depth, double subscripts, int symbols, long seed) {
+		StringBuilder sb = new StringBuilder();
+		term(sb, operands, depth, subscripts, symbols, new Random(seed));
+		return sb.toString();
+	}
+
+	private static void term(StringBuilder sb, int operands, int depth, double subscripts,
+			int symbols, Random random) {
+		if (depth > 0 && operands > 1) {
+			int left = operands / 2;
+			sb.append('(');
+			term(sb, left, depth-1, subscripts, symbols, random);
+			sb.append(')');
+			sb.append(OPERATORS.charAt(random.nextInt(4)));
+			term(sb, operands - left, depth, subscripts, symbols, random);
+			return;
+		}
+		for (int i = 0; i < operands; i++) {
+			if (i > 0) {
+				sb.append(OPERATORS.charAt(random.nextInt(4)));
+			}
+			if (random.nextDouble() < subscripts) {
+				sb.append(array(random.nextInt(symbols)));
+				sb.append('[');
+				if (random.nextBoolean()) {
+					sb.append(random.nextInt(ARRAY_LENGTH));
+				} else {
+					sb.append(variable(random.nextInt(symbols)));
+				}
+				sb.append(']');
+			} else if (random.nextInt(8) == 0) {
+				sb.append(1 + random.nextInt(100));
+			} else {
+				sb.append(variable(random.nextInt(symbols)));
+			}
+		}
+	}
+
+	/**
+	 * Generates a values file with every variable and array that expressions
+	 * with this number of symbols can use.
+	 *
+	 * @param symbols Number of variables, and of arrays
+	 * @param seed Random seed
+	 * @return Text of the values file
+	 */
+	public static String values(int symbols, long seed) {
+		Random random = new Random(seed);
+		StringBuilder sb = new StringBuilder();
+		for (int k = 0; k < symbols; k++) {
+			sb.append(variable(k)).append(' ').append(1 + random.nextInt(ARRAY_LENGTH-1)).append('\n');
+		}
+		for (int k = 0; k < symbols; k++) {
+			sb.append(array(k)).append(' ').append(ARRAY_LENGTH);
+			for (int i = 0; i < ARRAY_LENGTH; i++) {
+				sb.append(" (").append(i).append(',').append(1 + random.nextInt(1000)).append(')');
+			}
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,39 @@
+package bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks. Takes the standard JMH command line options, and adds the
+ * GC profiler unless other profilers are given, so that the allocation rate
+ * is reported along with the throughput.
+ *
+ * @author aravindm24
+ *
+ */
+public class Main {
+
+	/**
+	 * @param args JMH command line options
+	 */
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions cmd = new CommandLineOptions(args);
+		if (cmd.shouldHelp()) {
+			cmd.showHelp();
+			return;
+		}
+		ChainedOptionsBuilder options = new OptionsBuilder().parent(cmd);
+		if (cmd.getProfilers().isEmpty()) {
+			options.addProfiler(GCProfiler.class);
+		}
+		Runner runner = new Runner(options.build());
+		if (cmd.shouldList()) {
+			runner.list();
+		} else {
+			runner.run();
+		}
+	}
+}
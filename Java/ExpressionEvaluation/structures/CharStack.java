@@ -0,0 +1,103 @@
+package structures;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A stack of char values, kept in an array that grows as needed. Values are
+ * stored unboxed, and clearing the stack keeps its capacity, so a stack that is
+ * reused does not allocate once it has grown to its working size.
+ */
+public class CharStack {
+
+	/**
+	 * Items in the stack, bottom first.
+	 */
+	private char[] items;
+
+	/**
+	 * Number of items in the stack.
+	 */
+	private int size;
+
+	/**
+	 * Initializes stack to empty, with a default capacity.
+	 */
+	public CharStack() {
+		this(16);
+	}
+
+	/**
+	 * Initializes stack to empty.
+	 * 
+	 * @param capacity Number of items the stack can hold before it has to grow.
+	 */
+	public CharStack(int capacity) {
+		items = new char[Math.max(capacity, 1)];
+	}
+
+	/**
+	 * Pushes a new item on top of stack.
+	 * 
+	 * @param item Item to push.
+	 */
+	public void push(char item) {
+		if (size == items.length) {
+			items = Arrays.copyOf(items, size*2);
+		}
+		items[size++] = item;
+	}
+
+	/**
+	 * Pops item at top of stack and returns it.
+	 * 
+	 * @return Popped item.
+	 * @throws NoSuchElementException If stack is empty.
+	 */
+	public char pop() 
+	throws NoSuchElementException {
+		if (size == 0) {
+			throw new NoSuchElementException("can't pop from an empty stack");
+		}
+		return items[--size];
+	}
+
+	/**
+	 * Returns item on top of stack, without popping it.
+	 * 
+	 * @return Item at top of stack.
+	 * @throws NoSuchElementException If stack is empty.
+	 */
+	public char peek() 
+	throws NoSuchElementException {
+		if (size == 0) {
+			throw new NoSuchElementException("can't peek on an empty stack");
+		}
+		return items[size-1];
+	}
+
+	/**
+	 * Tells if stack is empty.
+	 * 
+	 * @return True if stack is empty, false if not.
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Returns number of items in stack.
+	 * 
+	 * @return Number of items in stack.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Empties the stack, keeping its capacity.
+	 */
+	public void clear() {
+		size = 0;
+	}
+}